@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.bench;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+/**
+ * Measures first-iteration and steady-state time of a hot guest loop on whatever Truffle runtime the JVM was
+ * started with. Run once with -Dtruffle.TruffleRuntime=com.oracle.truffle.api.impl.DefaultTruffleRuntime and once
+ * without it to compare the interpreter with the optimizing runtime (see the bench profile in pom.xml).
+ *
+ * Arguments: [iterations] [warmup iterations], engine options are taken from repl.engine.* properties.
+ */
+public final class EngineBenchmark {
+
+    private static final String CODE = "(function(n) {\n"
+            + "  let sum = 0;\n"
+            + "  for (let i = 0; i < n; i++) {\n"
+            + "    sum = (sum + i * i) % 1000003;\n"
+            + "  }\n"
+            + "  return sum;\n"
+            + "})";
+
+    private static final int LOOP_SIZE = 1_000_000;
+
+    private EngineBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        final int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        final Engine.Builder engineBuilder = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false");
+        final String prefix = "repl.engine.";
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                engineBuilder.allowExperimentalOptions(true)
+                        .option("engine." + name.substring(prefix.length()), System.getProperty(name));
+            }
+        }
+
+        try (Engine engine = engineBuilder.build(); Context context = Context.newBuilder("js").engine(engine).build()) {
+            final Value function = context.eval(Source.create("js", CODE));
+
+            long start = System.nanoTime();
+            function.execute(LOOP_SIZE);
+            final long first = System.nanoTime() - start;
+
+            for (int i = 0; i < warmup; i++) {
+                function.execute(LOOP_SIZE);
+            }
+
+            long total = 0;
+            for (int i = 0; i < iterations; i++) {
+                start = System.nanoTime();
+                function.execute(LOOP_SIZE);
+                total += System.nanoTime() - start;
+            }
+
+            System.out.printf("Runtime: %s%n", engine.getImplementationName());
+            System.out.printf("First iteration: %.2f ms%n", first / 1e6);
+            System.out.printf("Steady state (mean of %d after %d warmup): %.2f ms%n", iterations, warmup,
+                    total / 1e6 / iterations);
+        }
+    }
+}
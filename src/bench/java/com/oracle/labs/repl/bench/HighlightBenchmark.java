@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.bench;
+
+import com.oracle.labs.repl.editor.SyntaxHighlighter;
+import com.oracle.labs.repl.util.languages.JavaScriptAdapter;
+import javafx.application.Platform;
+import org.fxmisc.richtext.CodeArea;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures syntax highlighting cost in a large document. Highlights a generated JavaScript document, then types into
+ * the middle of it and times each keystroke, including the text change itself and re-lexing of edited paragraphs.
+ * Opening and closing a block comment at the top, which forces all following paragraphs to be re-lexed, is timed
+ * separately and only reported. Exits with status 1 if p99 keystroke time exceeds repl.bench.maxHighlight ms
+ * (default one frame at 60 Hz).
+ *
+ * Needs a JavaFX platform, run it with Monocle headless like UiBenchmark (see the bench profile in pom.xml).
+ *
+ * Arguments: [document lines] [typed keystrokes].
+ */
+public final class HighlightBenchmark {
+
+    private static final String[] LINES = {
+            "function f%d(a, b) {",
+            "  // add both arguments, %d",
+            "  const s = \"value \" + a + 'x' + b;",
+            "  /* inline */ let n = %d;",
+            "  return `${s} ${n}`;",
+            "}",
+    };
+
+    private HighlightBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int lines = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        final int keystrokes = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+
+        final CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+
+        final CompletableFuture<Double> done = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                done.complete(run(lines, keystrokes));
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        });
+        boolean failed;
+        try {
+            final double p99 = done.get(10, TimeUnit.MINUTES);
+            final double limit = Double.parseDouble(System.getProperty("repl.bench.maxHighlight", "16.7"));
+            failed = p99 > limit;
+            if (failed) {
+                System.out.printf("FAILED: p99 keystroke %.3f ms exceeds %.3f ms%n", p99, limit);
+            }
+        } finally {
+            Platform.exit();
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Runs on the FX thread and returns p99 keystroke time in ms.
+     */
+    private static double run(final int lines, final int keystrokes) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append(String.format(LINES[i % LINES.length], i)).append('\n');
+        }
+        final CodeArea area = new CodeArea(text.toString());
+        final SyntaxHighlighter highlighter = new SyntaxHighlighter(area);
+
+        long start = System.nanoTime();
+        highlighter.setGrammar(new JavaScriptAdapter().grammar());
+        final long full = System.nanoTime() - start;
+
+        final long[] typed = new long[keystrokes];
+        final int middle = area.getAbsolutePosition(lines / 2, 0);
+        for (int i = 0; i < keystrokes; i++) {
+            start = System.nanoTime();
+            if (i % 10 == 9) {
+                area.deleteText(middle, middle + 1);
+            } else {
+                area.insertText(middle, i % 3 == 0 ? "\"" : "x");
+            }
+            typed[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(typed);
+
+        start = System.nanoTime();
+        area.insertText(0, "/*");
+        final long open = System.nanoTime() - start;
+        start = System.nanoTime();
+        area.deleteText(0, 2);
+        final long close = System.nanoTime() - start;
+
+        final double p99 = percentile(typed, 99) / 1e6;
+        System.out.printf("Highlight %d lines: full %.2f ms%n", lines, full / 1e6);
+        System.out.printf("Typing (%d keystrokes): p50 %.3f ms, p99 %.3f ms, max %.3f ms%n", keystrokes,
+                percentile(typed, 50) / 1e6, p99, percentile(typed, 100) / 1e6);
+        System.out.printf("Block comment at top: open %.2f ms, close %.2f ms%n", open / 1e6, close / 1e6);
+        return p99;
+    }
+
+    private static long percentile(final long[] sorted, final int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
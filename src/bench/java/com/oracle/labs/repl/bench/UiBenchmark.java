@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.bench;
+
+import com.oracle.labs.repl.UiHarness;
+import com.oracle.labs.repl.util.TerminalComponent;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.control.TextArea;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.stage.Stage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless measurement of how the UI copes with output floods and typing. Loads the view through UiHarness,
+ * writes a flood of lines to the terminal output stream and then types into the interpreter box, while recording
+ * layout pulse durations, frame intervals and heap growth. Exits with status 1 if a threshold is exceeded.
+ *
+ * Meant to run with the Monocle headless platform (see the bench profile in pom.xml), so no display is needed.
+ *
+ * Arguments: [flood lines] [typed keystrokes]. Thresholds are set with system properties:
+ * repl.bench.maxPulse (p99 layout pulse in ms, default 50), repl.bench.maxDropped (fraction of dropped frames,
+ * default 0.2) and repl.bench.maxHeapGrowth (MB, default 64).
+ */
+public final class UiBenchmark {
+
+    private static final long FRAME = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    private UiBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int lines = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        final int keystrokes = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+
+        final CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+
+        final CompletableFuture<UiHarness> shown = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                final UiHarness harness = new UiHarness();
+                final Stage stage = new Stage();
+                stage.setScene(new Scene(harness.getRoot(), 667, 350));
+                stage.show();
+                shown.complete(harness);
+            } catch (Exception e) {
+                shown.completeExceptionally(e);
+            }
+        });
+        final UiHarness harness = shown.get(60, TimeUnit.SECONDS);
+        final TerminalComponent term = harness.getTerminal();
+        final TextArea box = harness.getInterpreterBox();
+        settle(box);
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        final long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        final Metrics flood = Metrics.start(box.getScene());
+        for (int i = 0; i < lines; i++) {
+            term.out.writeLine("flood line " + i + ": the quick brown fox jumps over the lazy dog");
+        }
+        settle(box);
+        flood.stop();
+
+        final Metrics typing = Metrics.start(box.getScene());
+        for (int i = 0; i < keystrokes; i++) {
+            final boolean erase = i % 10 == 9;
+            onFx(() -> type(box, erase));
+        }
+        settle(box);
+        typing.stop();
+
+        memory.gc();
+        final long heapGrowth = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+
+        flood.print("Output flood (" + lines + " lines)");
+        typing.print("Typing (" + keystrokes + " keystrokes)");
+        System.out.printf("Heap growth: %.1f MB%n", heapGrowth / 1e6);
+
+        final double maxPulse = Double.parseDouble(System.getProperty("repl.bench.maxPulse", "50"));
+        final double maxDropped = Double.parseDouble(System.getProperty("repl.bench.maxDropped", "0.2"));
+        final double maxHeapGrowth = Double.parseDouble(System.getProperty("repl.bench.maxHeapGrowth", "64"));
+        boolean failed = false;
+        for (Metrics metrics : new Metrics[]{flood, typing}) {
+            failed |= check("p99 layout pulse (ms)", metrics.pulsePercentile(99) / 1e6, maxPulse);
+            failed |= check("dropped frame fraction", metrics.droppedFraction(), maxDropped);
+        }
+        failed |= check("heap growth (MB)", heapGrowth / 1e6, maxHeapGrowth);
+
+        Platform.exit();
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean check(final String name, final double value, final double limit) {
+        if (value > limit) {
+            System.out.printf("FAILED: %s %.3f exceeds %.3f%n", name, value, limit);
+            return true;
+        }
+        return false;
+    }
+
+    private static void type(final Node target, final boolean erase) {
+        if (erase) {
+            Event.fireEvent(target, new KeyEvent(KeyEvent.KEY_PRESSED, "", "", KeyCode.BACK_SPACE, false, false,
+                    false, false));
+        } else {
+            Event.fireEvent(target, new KeyEvent(KeyEvent.KEY_TYPED, "x", "", KeyCode.UNDEFINED, false, false,
+                    false, false));
+        }
+    }
+
+    private static void onFx(final Runnable runnable) throws Exception {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            runnable.run();
+            done.complete(null);
+        });
+        done.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits until terminal text stops changing, i.e. streams were drained and rendered.
+     */
+    private static void settle(final TextArea box) throws Exception {
+        int length = -1;
+        int stable = 0;
+        while (stable < 5) {
+            Thread.sleep(100);
+            final CompletableFuture<Integer> current = new CompletableFuture<>();
+            Platform.runLater(() -> current.complete(box.getLength()));
+            final int next = current.get(10, TimeUnit.SECONDS);
+            stable = next == length ? stable + 1 : 0;
+            length = next;
+        }
+    }
+
+    private static final class Metrics {
+        private final Scene scene;
+        private final AnimationTimer timer;
+        private final Runnable pre;
+        private final Runnable post;
+
+        private long[] pulses = new long[1024];
+        private int pulseCount;
+        private long pulseStart;
+        private long lastFrame;
+        private long frames;
+        private long dropped;
+
+        private Metrics(final Scene scene) {
+            this.scene = scene;
+            this.pre = () -> pulseStart = System.nanoTime();
+            this.post = () -> {
+                if (pulseCount == pulses.length) {
+                    pulses = Arrays.copyOf(pulses, pulseCount * 2);
+                }
+                pulses[pulseCount++] = System.nanoTime() - pulseStart;
+            };
+            this.timer = new AnimationTimer() {
+                @Override
+                public void handle(final long now) {
+                    if (lastFrame != 0) {
+                        frames++;
+                        dropped += Math.max(0, (now - lastFrame) / FRAME - 1);
+                    }
+                    lastFrame = now;
+                }
+            };
+        }
+
+        static Metrics start(final Scene scene) throws Exception {
+            final Metrics metrics = new Metrics(scene);
+            onFx(() -> {
+                scene.addPreLayoutPulseListener(metrics.pre);
+                scene.addPostLayoutPulseListener(metrics.post);
+                metrics.timer.start();
+            });
+            return metrics;
+        }
+
+        void stop() throws Exception {
+            onFx(() -> {
+                timer.stop();
+                scene.removePreLayoutPulseListener(pre);
+                scene.removePostLayoutPulseListener(post);
+            });
+        }
+
+        long pulsePercentile(final int percentile) {
+            if (pulseCount == 0) {
+                return 0;
+            }
+            final long[] sorted = Arrays.copyOf(pulses, pulseCount);
+            Arrays.sort(sorted);
+            final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        double droppedFraction() {
+            return frames + dropped > 0 ? (double) dropped / (frames + dropped) : 0;
+        }
+
+        void print(final String name) {
+            System.out.printf("%s: %d pulses, layout p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d frames, %d dropped%n",
+                    name, pulseCount, pulsePercentile(50) / 1e6, pulsePercentile(99) / 1e6,
+                    pulsePercentile(100) / 1e6, frames, dropped);
+        }
+    }
+}
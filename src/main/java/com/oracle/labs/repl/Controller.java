@@ -45,7 +45,13 @@ import com.gluonhq.attach.keyboard.KeyboardService;
 import com.gluonhq.attach.lifecycle.LifecycleEvent;
 import com.gluonhq.attach.lifecycle.LifecycleService;
 import com.gluonhq.attach.util.Platform;
+import com.oracle.labs.repl.editor.CodeEditor;
+import com.oracle.labs.repl.editor.DocumentReader;
+import com.oracle.labs.repl.editor.NotebookCells;
+import com.oracle.labs.repl.util.CompletionService;
 import com.oracle.labs.repl.util.Interpreter;
+import com.oracle.labs.repl.util.LifecycleMemoryManager;
+import com.oracle.labs.repl.util.NotebookSession;
 import com.oracle.labs.repl.util.TerminalComponent;
 import javafx.beans.value.ChangeListener;
 import javafx.css.PseudoClass;
@@ -53,13 +59,17 @@ import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextArea;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Year;
+import java.util.List;
+import java.util.Map;
 
 public class Controller {
 
@@ -80,7 +90,7 @@ public class Controller {
     @FXML
     private StackPane codePane;
     @FXML
-    private TextArea codeBox;
+    private CodeEditor codeBox;
     @FXML
     private Button runCodeButton;
     @FXML
@@ -95,6 +105,8 @@ public class Controller {
 
     private Interpreter interpreter;
     private TerminalComponent term;
+    private CompletionService completion;
+    private NotebookSession notebook;
 
     enum GUI_STATE {
         INTERPRETER, CODE_EDITOR,
@@ -112,9 +124,21 @@ public class Controller {
         term.writeLine();
 
         interpreter = new Interpreter(term);
+        term.setHistoryLanguage(interpreter.getLanguageName());
+        completion = new CompletionService(interpreter);
+        notebook = new NotebookSession(interpreter, term.out, term.err);
+
+        final LifecycleMemoryManager memoryManager = new LifecycleMemoryManager(term, interpreter, completion);
+        LifecycleService.create().ifPresent(lifecycle -> {
+            lifecycle.addListener(LifecycleEvent.PAUSE, memoryManager::onPause);
+            lifecycle.addListener(LifecycleEvent.RESUME, memoryManager::onResume);
+        });
+        codeBox.setGrammar(interpreter.getLanguageAdapter().grammar());
 
         switchLanguageButton.setOnAction(e -> {
             interpreter.nextLanguage();
+            term.setHistoryLanguage(interpreter.getLanguageName());
+            codeBox.setGrammar(interpreter.getLanguageAdapter().grammar());
             term.writeLine();
             interpreter.showPrompt();
         });
@@ -127,25 +151,179 @@ public class Controller {
 
     public void doInterpreterEval() {
         term.updateStreams();
-        if (!interpreter.isBlocked() || interpreter.isInputBlocked()) {
+        final String command = term.getCurrentCode().trim();
+        if (command.equals(":queue") || command.startsWith(":cancel")) {
+            term.takeCurrent();
+            term.writeLine(command);
+            doQueueCommand(command);
+        } else if (command.startsWith(":replay ") && !interpreter.isBlocked()) {
+            term.takeCurrent();
+            term.writeLine(command);
+            doReplayCommand(command);
+        } else if (interpreter.isInputBlocked()) {
+            // Running evaluation waits for input, e.g. input() of a queued command, so the line is its answer
             term.in.flush();
             term.commitCurrent();
-            if (!interpreter.isBlocked())
-                interpreter.eval();
+        } else if (interpreter.isBlocked() || interpreter.hasPending()) {
+            // Type-ahead: evaluated in order once running evaluation finishes
+            final String code = term.takeCurrent();
+            if (!code.isEmpty()) {
+                interpreter.enqueue(code);
+            }
+        } else if (term.isCurrentMultiline()) {
+            term.in.flush();
+            interpreter.evalBlock(term.commitBlock());
+        } else {
+            term.in.flush();
+            term.commitCurrent();
+            interpreter.eval();
         }
         term.updateStreams();
     }
 
+    /**
+     * Handles queue commands, which are never queued themselves: ":queue" lists pending commands, ":cancel"
+     * cancels all of them and ":cancel n" cancels the one with queue number n.
+     */
+    private void doQueueCommand(final String command) {
+        final Map<Long, String> pending = interpreter.getPending();
+        if (command.equals(":queue")) {
+            if (pending.isEmpty()) {
+                term.writeLine("No queued commands.");
+            }
+            pending.forEach((id, code) -> term.writeLine("#" + id + ": " + code.trim()));
+        } else {
+            final String argument = command.substring(":cancel".length()).trim().replace("#", "");
+            try {
+                final Iterable<Long> ids = argument.isEmpty() ? pending.keySet()
+                        : List.of(Long.parseLong(argument));
+                for (long id : ids) {
+                    term.writeLine(interpreter.cancelPending(id) ? "Cancelled #" + id + "."
+                            : "Could not cancel #" + id + ", it is not queued (already started or finished).");
+                }
+            } catch (NumberFormatException e) {
+                term.writeLine("Usage: :cancel [queue number]");
+            }
+        }
+        if (!interpreter.isBlocked()) {
+            interpreter.showPrompt();
+        }
+    }
+
+    /**
+     * Handles ":replay file [pacing ms]", which feeds the file to the prompt line by line.
+     */
+    private void doReplayCommand(final String command) {
+        final String[] arguments = command.substring(":replay".length()).trim().split("\\s+");
+        try {
+            final long pacing = arguments.length > 1 ? Long.parseLong(arguments[1]) : 0;
+            interpreter.replay(Paths.get(arguments[0]), pacing);
+        } catch (NumberFormatException e) {
+            term.writeLine("Usage: :replay file [pacing ms]");
+            interpreter.showPrompt();
+        } catch (IOException e) {
+            term.writeLine(e.toString());
+            interpreter.showPrompt();
+        }
+    }
+
+    TerminalComponent getTerminal() {
+        return term;
+    }
+
+    TextArea getInterpreterBox() {
+        return interpreterBox;
+    }
+
+    public void doCompletion() {
+        final String code = term.getCurrentCode();
+        final int caret = term.getCaretOffset();
+        completion.complete(code, caret, result -> {
+            if (!code.equals(term.getCurrentCode()) || caret != term.getCaretOffset()) {
+                return; // code was edited in the meantime
+            }
+            if (result.candidates.size() == 1) {
+                term.replaceCurrent(result.from, caret, result.candidates.get(0));
+            } else {
+                final String common = result.commonPrefix();
+                if (common.length() > result.prefix.length()) {
+                    term.replaceCurrent(result.from, caret, common);
+                } else {
+                    term.writeLine(code);
+                    term.writeLine(String.join("  ", result.candidates));
+                    interpreter.showPrompt();
+                }
+            }
+        });
+    }
+
     public void doExecutionEval() throws IOException {
-        String code = codeBox.getText();
+        if (codeBox.hasCells()) {
+            term.clear();
+            notebook.run(NotebookCells.split(codeBox.getText(), interpreter.getAvailableLanguages()::contains),
+                    interpreter.getLanguageName());
+            return;
+        }
+        final DocumentReader code = codeBox.snapshotReader();
         term.clear();
-        interpreter.evalCode(code);
+        interpreter.evalCode(code, code.length());
         term.updateStreams();
     }
 
+    /**
+     * Initializes controller with compiled view, instead of fields injected by FXMLLoader.
+     */
+    void initialize(final MainView view) {
+        mainBox = view.mainBox;
+        buttonsBox = view.buttonsBox;
+        interpreterButton = view.interpreterButton;
+        codeButton = view.codeButton;
+        centerBox = view.centerBox;
+        codePane = view.codePane;
+        codeBox = view.codeBox;
+        runCodeButton = view.runCodeButton;
+        interpreterPane = view.interpreterPane;
+        interpreterBox = view.interpreterBox;
+        switchLanguageButton = view.switchLanguageButton;
+        keyboardPane = view.keyboardPane;
+        initialize();
+    }
+
     public void initialize() {
         init();
 
+        // Reverse search takes over the keyboard until it is accepted or cancelled.
+        interpreterBox.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
+            if (event.isShortcutDown() && event.getCode() == KeyCode.R) {
+                event.consume();
+                term.reverseSearch();
+            } else if (event.getCode() == KeyCode.TAB && !term.isReverseSearching()) {
+                event.consume();
+                doCompletion();
+            } else if (term.isReverseSearching()) {
+                if (event.getCode() == KeyCode.BACK_SPACE) {
+                    event.consume();
+                    term.editReverseSearch("", true);
+                } else if (event.getCode() == KeyCode.ESCAPE) {
+                    event.consume();
+                    term.endReverseSearch(false);
+                } else if (event.getCode() != KeyCode.ENTER && (event.getCode().isNavigationKey()
+                        || event.getCode() == KeyCode.TAB)) {
+                    event.consume();
+                    term.endReverseSearch(true);
+                }
+            }
+        });
+        interpreterBox.addEventFilter(KeyEvent.KEY_TYPED, event -> {
+            if (term.isReverseSearching()) {
+                event.consume();
+                final String typed = event.getCharacter();
+                if (!typed.isEmpty() && !Character.isISOControl(typed.charAt(0)) && !event.isShortcutDown()) {
+                    term.editReverseSearch(typed, false);
+                }
+            }
+        });
+
         interpreterBox.setOnKeyPressed(event -> {
             if (event.getCode() == KeyCode.ENTER) {
                 try {
@@ -163,14 +341,27 @@ public class Controller {
             } else if (event.getCode() == KeyCode.DOWN) {
                 event.consume();
                 term.historyChange(-1);
-            } else
-                term.checkInvalidState();
+            }
         });
 
 
         codeBox.setOnKeyPressed(event -> {
             if (event.getCode() == KeyCode.ESCAPE) // Keyboard turned off.
                 codeBox.getParent().requestFocus();
+            else if (event.getCode() == KeyCode.ENTER && event.isShortcutDown() && event.isAltDown()) {
+                // Shortcut+Alt+Enter runs independent cells in parallel
+                event.consume();
+                term.clear();
+                notebook.runParallel(NotebookCells.split(codeBox.getText(),
+                        interpreter.getAvailableLanguages()::contains), interpreter.getLanguageName());
+            } else if (event.getCode() == KeyCode.ENTER && event.isShortcutDown()) {
+                // Shortcut+Enter runs dirty cells, with Shift all cells
+                event.consume();
+                if (event.isShiftDown()) {
+                    notebook.reset();
+                }
+                runCodeButton.fire();
+            }
         });
 
         interpreterButton.setOnAction(event -> {
@@ -43,6 +43,7 @@ package com.oracle.labs.repl;
 import com.gluonhq.attach.display.DisplayService;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.css.PseudoClass;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Dimension2D;
 import javafx.scene.Parent;
@@ -56,15 +57,33 @@ import java.util.Objects;
 
 public class Main extends Application {
 
+    private static final PseudoClass FONTS_LOADED = PseudoClass.getPseudoClass("fonts-loaded");
+
     @Override
     public void start(final Stage stage) throws IOException {
+        final long start = System.nanoTime();
         Font.loadFont(Objects.requireNonNull(Main.class.getResource("/Inconsolata-Regular.ttf")).toExternalForm(), 10);
-        Font.loadFont(Objects.requireNonNull(Main.class.getResource("/FreeMono.ttf")).toExternalForm(), 10);
+        final long fontLoaded = System.nanoTime();
+
+        // -Drepl.fxml=true builds the UI from main.fxml instead of the compiled view
+        final Parent root = Boolean.getBoolean("repl.fxml")
+                ? FXMLLoader.load(Objects.requireNonNull(Main.class.getResource("/main.fxml")))
+                : MainView.load(new Controller());
+        final long viewLoaded = System.nanoTime();
+        loadFontsInBackground(root);
 
-        final Parent root = FXMLLoader.load(Objects.requireNonNull(Main.class.getResource("/main.fxml")));
         Dimension2D dimension2D = DisplayService.create().map(DisplayService::getDefaultDimensions).orElse(new Dimension2D(667, 350));
         final Scene scene = new Scene(root, dimension2D.getWidth(), dimension2D.getHeight(), Color.web("#03687f"));
         // scene.getStylesheets().add("/styles.css");
+        final Runnable firstFrame = new Runnable() {
+            @Override
+            public void run() {
+                Platform.runLater(() -> scene.removePostLayoutPulseListener(this));
+                System.out.printf("First frame after %.1f ms (font %.1f ms, view %.1f ms)%n",
+                        (System.nanoTime() - start) / 1e6, (fontLoaded - start) / 1e6, (viewLoaded - fontLoaded) / 1e6);
+            }
+        };
+        scene.addPostLayoutPulseListener(firstFrame);
         stage.setScene(scene);
         stage.setTitle("GraalVM REPL");
         stage.show();
@@ -75,8 +94,21 @@ public class Main extends Application {
         });
     }
 
+    /**
+     * Loads fonts that are not needed for the first frame. Root gets :fonts-loaded pseudo class once they are
+     * available, so styles that use them are applied.
+     */
+    private static void loadFontsInBackground(final Parent root) {
+        final Thread loader = new Thread(() -> {
+            Font.loadFont(Objects.requireNonNull(Main.class.getResource("/FreeMono.ttf")).toExternalForm(), 10);
+            Platform.runLater(() -> root.pseudoClassStateChanged(FONTS_LOADED, true));
+        }, "font-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
     public static void main(final String[] args) {
         launch(args);
     }
 
-}
\ No newline at end of file
+}
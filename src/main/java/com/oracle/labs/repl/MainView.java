@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl;
+
+import com.oracle.labs.repl.editor.CodeEditor;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+
+import java.util.Objects;
+
+/**
+ * Scene graph of main.fxml, built in plain Java so startup does not parse FXML or inject fields through
+ * reflection. Keep in sync with main.fxml, which is still used with -Drepl.fxml=true.
+ */
+final class MainView {
+
+    final VBox mainBox = new VBox();
+    final HBox buttonsBox = new HBox();
+    final Button interpreterButton = new Button("Interpreter");
+    final Button codeButton = new Button("Code Editor");
+    final VBox centerBox = new VBox(2);
+    final StackPane codePane = new StackPane();
+    final CodeEditor codeBox = new CodeEditor();
+    final Button runCodeButton = new Button("▶");
+    final StackPane interpreterPane = new StackPane();
+    final TextArea interpreterBox = new TextArea();
+    final Button switchLanguageButton = new Button("↔");
+    final Pane keyboardPane = new Pane();
+
+    private MainView() {
+        mainBox.getStyleClass().add("main-box");
+        mainBox.getStylesheets().add(Objects.requireNonNull(MainView.class.getResource("/styles.css")).toExternalForm());
+
+        buttonsBox.getStyleClass().add("top-box");
+        buttonsBox.setMinHeight(45);
+        buttonsBox.setPrefHeight(45);
+        buttonsBox.setMaxHeight(45);
+        for (Button button : new Button[]{interpreterButton, codeButton}) {
+            button.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+            HBox.setHgrow(button, Priority.ALWAYS);
+        }
+        buttonsBox.getChildren().addAll(interpreterButton, codeButton);
+
+        codePane.getChildren().addAll(codeBox, corner(runCodeButton));
+        VBox.setVgrow(codePane, Priority.SOMETIMES);
+
+        interpreterBox.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        interpreterBox.getStyleClass().add("terminal");
+        interpreterBox.setWrapText(true);
+        interpreterPane.getChildren().addAll(interpreterBox, corner(switchLanguageButton));
+        VBox.setVgrow(interpreterPane, Priority.SOMETIMES);
+
+        centerBox.getChildren().addAll(codePane, interpreterPane);
+        VBox.setVgrow(centerBox, Priority.ALWAYS);
+
+        mainBox.getChildren().addAll(buttonsBox, centerBox, keyboardPane);
+    }
+
+    private static Button corner(final Button button) {
+        button.getStyleClass().add("circ-button");
+        StackPane.setAlignment(button, Pos.BOTTOM_RIGHT);
+        StackPane.setMargin(button, new Insets(0, 10, 10, 0));
+        return button;
+    }
+
+    /**
+     * Builds the view and initializes given controller with it, as FXMLLoader would.
+     *
+     * @param controller controller to initialize
+     * @return root of the view
+     */
+    static VBox load(final Controller controller) {
+        final MainView view = new MainView();
+        controller.initialize(view);
+        return view.mainBox;
+    }
+}
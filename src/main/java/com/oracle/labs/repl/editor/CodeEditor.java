@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.editor;
+
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.LineNumberFactory;
+import org.fxmisc.richtext.model.Paragraph;
+
+/**
+ * Code editor with line numbers and incremental syntax highlighting.
+ */
+public class CodeEditor extends CodeArea {
+
+    private final SyntaxHighlighter highlighter;
+
+    public CodeEditor() {
+        getStyleClass().add("code-editor");
+        setParagraphGraphicFactory(LineNumberFactory.get(this));
+        highlighter = new SyntaxHighlighter(this);
+    }
+
+    /**
+     * Takes immutable snapshot of current text. Snapshot shares structure with the document, so taking it is
+     * cheap and it can be read from any thread.
+     *
+     * @return reader over the snapshot
+     */
+    public DocumentReader snapshotReader() {
+        return new DocumentReader(getContent().snapshot());
+    }
+
+    /**
+     * @return true if text is split into notebook cells
+     */
+    public boolean hasCells() {
+        for (Paragraph<?, ?, ?> paragraph : getParagraphs()) {
+            if (NotebookCells.isMarker(paragraph.getText())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets grammar used for highlighting, e.g. when active language changes.
+     *
+     * @param grammar token grammar
+     */
+    public void setGrammar(TokenGrammar grammar) {
+        highlighter.setGrammar(grammar);
+    }
+}
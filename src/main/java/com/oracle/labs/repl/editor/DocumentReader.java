@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.editor;
+
+import org.fxmisc.richtext.model.Paragraph;
+import org.fxmisc.richtext.model.StyledDocument;
+
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reader over an immutable document snapshot. Text is produced one paragraph at a time, so the document is never
+ * copied into a single String.
+ */
+public class DocumentReader extends Reader {
+
+    private final List<? extends Paragraph<?, ?, ?>> paragraphs;
+    private final int length;
+
+    private int paragraph;
+    private String current;
+    private int offset;
+
+    /**
+     * @param snapshot immutable document, e.g. result of EditableStyledDocument.snapshot()
+     */
+    public DocumentReader(final StyledDocument<?, ?, ?> snapshot) {
+        this.paragraphs = snapshot.getParagraphs();
+        this.length = snapshot.length();
+    }
+
+    /**
+     * @return number of characters in the snapshot
+     */
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public int read(final char[] buffer, final int off, final int len) {
+        int copied = 0;
+        while (copied < len) {
+            if (current == null) {
+                if (paragraph >= paragraphs.size()) {
+                    return copied == 0 ? -1 : copied;
+                }
+                current = paragraphs.get(paragraph).getText();
+                if (++paragraph < paragraphs.size()) {
+                    current += '\n';
+                }
+                offset = 0;
+            }
+            final int count = Math.min(len - copied, current.length() - offset);
+            current.getChars(offset, offset + count, buffer, off + copied);
+            offset += count;
+            copied += count;
+            if (offset == current.length()) {
+                current = null;
+            }
+        }
+        return copied;
+    }
+
+    @Override
+    public void close() {
+        current = null;
+        paragraph = paragraphs.size();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.editor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits editor text into notebook cells.
+ *
+ * A cell starts with a marker line, "# %%" or "// %%", optionally followed by the cell's language, e.g.
+ * "# %% python". Any other text after the marker is treated as a title. Cells without a language use the language
+ * of the previous cell. Text before the first marker
+ * forms a cell of its own if it is not blank.
+ */
+public final class NotebookCells {
+
+    private static final Pattern MARKER = Pattern.compile("^\\s*(?:#|//)\\s*%%\\s*(\\w+)?.*$");
+
+    /**
+     * Single cell of a notebook.
+     */
+    public static final class Cell {
+        public final int index;
+        public final int line; // line of the first code line, 0-based
+        public final String language; // null if not specified and no previous cell specified it
+        public final String code;
+
+        Cell(int index, int line, String language, String code) {
+            this.index = index;
+            this.line = line;
+            this.language = language;
+            this.code = code;
+        }
+    }
+
+    private NotebookCells() {
+    }
+
+    /**
+     * @param line single line of text
+     * @return true if line starts a new cell
+     */
+    public static boolean isMarker(final String line) {
+        return MARKER.matcher(line).matches();
+    }
+
+    /**
+     * @param text       editor text
+     * @param isLanguage tells whether a word after marker is a language name
+     * @return cells in document order
+     */
+    public static List<Cell> split(final String text, final Predicate<String> isLanguage) {
+        final List<Cell> cells = new ArrayList<>();
+        final String[] lines = text.split("\n", -1);
+
+        String language = null;
+        StringBuilder code = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < lines.length; i++) {
+            final Matcher marker = MARKER.matcher(lines[i]);
+            if (!marker.matches()) {
+                code.append(lines[i]).append('\n');
+                continue;
+            }
+            add(cells, start, language, code);
+            if (marker.group(1) != null && isLanguage.test(marker.group(1))) {
+                language = marker.group(1);
+            }
+            code = new StringBuilder();
+            start = i + 1;
+        }
+        add(cells, start, language, code);
+        return cells;
+    }
+
+    private static void add(final List<Cell> cells, final int line, final String language, final StringBuilder code) {
+        if (code.toString().isBlank()) {
+            return;
+        }
+        cells.add(new Cell(cells.size(), line, language, code.toString()));
+    }
+}
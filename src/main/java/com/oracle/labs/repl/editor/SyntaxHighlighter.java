@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.editor;
+
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Incremental syntax highlighter for CodeArea.
+ *
+ * Lexer state at the end of every paragraph is cached. After an edit only the edited paragraphs are re-lexed,
+ * starting from the cached state of the paragraph before them, and re-lexing continues only while the resulting
+ * end state differs from the cached one (e.g. after opening a block comment). Styles of all re-lexed paragraphs are
+ * applied to the area in one update.
+ */
+public class SyntaxHighlighter {
+
+    private static final int UNKNOWN_STATE = -1;
+
+    private final CodeArea area;
+    private final List<Integer> endStates = new ArrayList<>();
+    private TokenGrammar grammar;
+
+    public SyntaxHighlighter(final CodeArea area) {
+        this.area = area;
+        area.plainTextChanges().subscribe(this::onChange);
+    }
+
+    /**
+     * Sets grammar and re-highlights whole document.
+     *
+     * @param grammar token grammar, or null to disable highlighting
+     */
+    public void setGrammar(final TokenGrammar grammar) {
+        this.grammar = grammar;
+        rehighlight();
+    }
+
+    public void rehighlight() {
+        endStates.clear();
+        endStates.addAll(Collections.nCopies(area.getParagraphs().size(), UNKNOWN_STATE));
+        relex(0, endStates.size() - 1);
+    }
+
+    private void onChange(final PlainTextChange change) {
+        if (endStates.isEmpty()) {
+            rehighlight();
+            return;
+        }
+        final int first = area.offsetToPosition(change.getPosition(), Bias.Forward).getMajor();
+        final int removed = countLines(change.getRemoved());
+        final int inserted = countLines(change.getInserted());
+
+        // Keep cached states aligned with paragraphs; paragraph first + inserted inherits the cached end state
+        // of the last replaced paragraph, which is what the following paragraphs were lexed from.
+        endStates.subList(first, first + removed).clear();
+        endStates.addAll(first, Collections.nCopies(inserted, UNKNOWN_STATE));
+
+        if (endStates.size() != area.getParagraphs().size()) {
+            rehighlight();
+            return;
+        }
+        relex(first, first + inserted);
+    }
+
+    private void relex(final int from, final int mandatoryTo) {
+        final int paragraphs = area.getParagraphs().size();
+        final StyleSpansBuilder<Collection<String>> spans = new StyleSpansBuilder<>();
+        int state = from == 0 ? TokenGrammar.DEFAULT_STATE : endStates.get(from - 1);
+        for (int paragraph = from; paragraph < paragraphs; paragraph++) {
+            if (paragraph > from) {
+                spans.add(Collections.emptyList(), 1); // line break
+            }
+            final int previous = endStates.get(paragraph);
+            state = highlight(paragraph, state, spans);
+            endStates.set(paragraph, state);
+            if (paragraph >= mandatoryTo && state == previous) {
+                break;
+            }
+        }
+        area.setStyleSpans(from, 0, spans.create());
+    }
+
+    private int highlight(final int paragraph, final int state,
+                          final StyleSpansBuilder<Collection<String>> spans) {
+        final String text = area.getParagraph(paragraph).getText();
+        if (grammar == null) {
+            spans.add(Collections.emptyList(), text.length());
+            return TokenGrammar.DEFAULT_STATE;
+        }
+        return grammar.lex(text, state, spans::add);
+    }
+
+    private static int countLines(final String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
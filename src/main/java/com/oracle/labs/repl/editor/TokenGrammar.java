@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Token grammar of a single language, used by SyntaxHighlighter.
+ *
+ * The lexer works one line at a time. The only state carried between lines is the index of an open multi-line
+ * block (block comment, multi-line string), so highlighting can resume from any line whose entry state is known.
+ */
+public class TokenGrammar {
+
+    public static final String KEYWORD = "keyword";
+    public static final String STRING = "string";
+    public static final String COMMENT = "comment";
+    public static final String NUMBER = "number";
+
+    /**
+     * State of a line that does not end inside a block.
+     */
+    public static final int DEFAULT_STATE = 0;
+
+    private static final Collection<String> PLAIN = Collections.emptyList();
+
+    private final Set<String> keywords = new HashSet<>();
+    private final List<Block> blocks = new ArrayList<>();
+    private String lineComment;
+    private String quotes = "";
+
+    private static final class Block {
+        final String open;
+        final String close;
+        final Collection<String> style;
+
+        Block(String open, String close, String style) {
+            this.open = open;
+            this.close = close;
+            this.style = Collections.singletonList(style);
+        }
+    }
+
+    /**
+     * Receives styled runs produced by the lexer, in order and covering the whole line.
+     */
+    public interface SpanConsumer {
+        void accept(Collection<String> style, int length);
+    }
+
+    public TokenGrammar keywords(String... words) {
+        keywords.addAll(Arrays.asList(words));
+        return this;
+    }
+
+    public TokenGrammar lineComment(String start) {
+        this.lineComment = start;
+        return this;
+    }
+
+    /**
+     * Adds construct that can span multiple lines. Blocks are matched in order in which they were added, so
+     * longer delimiters should be added first.
+     */
+    public TokenGrammar block(String open, String close, String style) {
+        blocks.add(new Block(open, close, style));
+        return this;
+    }
+
+    /**
+     * Sets characters that delimit single-line strings.
+     */
+    public TokenGrammar quotes(String quoteCharacters) {
+        this.quotes = quoteCharacters;
+        return this;
+    }
+
+    /**
+     * Tokenises a single line.
+     *
+     * @param line  line text, without line separator
+     * @param state state at the end of previous line
+     * @param spans receives styled runs
+     * @return state at the end of this line
+     */
+    public int lex(final String line, final int state, final SpanConsumer spans) {
+        final Emitter out = new Emitter(spans);
+        final int length = line.length();
+        int pos = 0;
+
+        if (state != DEFAULT_STATE && state <= blocks.size()) {
+            final Block block = blocks.get(state - 1);
+            final int end = line.indexOf(block.close);
+            if (end < 0) {
+                out.emit(block.style, 0, length);
+                return out.finish(length, state);
+            }
+            pos = end + block.close.length();
+            out.emit(block.style, 0, pos);
+        }
+
+        scan:
+        while (pos < length) {
+            for (int i = 0; i < blocks.size(); i++) {
+                final Block block = blocks.get(i);
+                if (line.startsWith(block.open, pos)) {
+                    final int end = line.indexOf(block.close, pos + block.open.length());
+                    if (end < 0) {
+                        out.emit(block.style, pos, length);
+                        return out.finish(length, i + 1);
+                    }
+                    out.emit(block.style, pos, end + block.close.length());
+                    pos = end + block.close.length();
+                    continue scan;
+                }
+            }
+
+            final char c = line.charAt(pos);
+            if (lineComment != null && line.startsWith(lineComment, pos)) {
+                out.emit(Collections.singletonList(COMMENT), pos, length);
+                break;
+            } else if (quotes.indexOf(c) >= 0) {
+                int end = pos + 1;
+                while (end < length && line.charAt(end) != c) {
+                    end += line.charAt(end) == '\\' ? 2 : 1;
+                }
+                end = Math.min(end + 1, length);
+                out.emit(Collections.singletonList(STRING), pos, end);
+                pos = end;
+            } else if (Character.isDigit(c)) {
+                int end = pos + 1;
+                while (end < length && (Character.isLetterOrDigit(line.charAt(end)) || line.charAt(end) == '.'
+                        || line.charAt(end) == '_')) {
+                    end++;
+                }
+                out.emit(Collections.singletonList(NUMBER), pos, end);
+                pos = end;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int end = pos + 1;
+                while (end < length && Character.isJavaIdentifierPart(line.charAt(end))) {
+                    end++;
+                }
+                if (keywords.contains(line.substring(pos, end))) {
+                    out.emit(Collections.singletonList(KEYWORD), pos, end);
+                }
+                pos = end;
+            } else {
+                pos++;
+            }
+        }
+        return out.finish(length, DEFAULT_STATE);
+    }
+
+    /**
+     * Fills gaps between styled runs with plain text.
+     */
+    private static final class Emitter {
+        private final SpanConsumer spans;
+        private int position;
+        private boolean empty = true;
+
+        Emitter(SpanConsumer spans) {
+            this.spans = spans;
+        }
+
+        void emit(Collection<String> style, int from, int to) {
+            if (from > position) {
+                spans.accept(PLAIN, from - position);
+                empty = false;
+            }
+            if (to > from) {
+                spans.accept(style, to - from);
+                empty = false;
+            }
+            position = to;
+        }
+
+        int finish(int length, int state) {
+            if (length > position || empty) {
+                spans.accept(PLAIN, length - position);
+            }
+            return state;
+        }
+    }
+}
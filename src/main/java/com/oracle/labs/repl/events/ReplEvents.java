@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted by the REPL pipeline.
+ *
+ * Every factory method returns null when JFR is unavailable (e.g. in native images) or when the event is not
+ * being recorded, so call sites only pay for a null check. Pass the result to {@link #end(Object)} once the
+ * measured phase is over. Method signatures do not use jdk.jfr types, and events are only started and committed
+ * through {@link Recorder}, so this class links even when jdk.jfr is missing.
+ */
+public final class ReplEvents {
+
+    /**
+     * Set to false with -Drepl.jfr=false to skip event creation altogether.
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("repl.jfr", "true"))
+            && isFlightRecorderAvailable();
+
+    private ReplEvents() {
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            return FlightRecorder.isAvailable();
+        } catch (Throwable t) {
+            // jdk.jfr is missing or unsupported on this platform.
+            return false;
+        }
+    }
+
+    public static ExtractionEvent beginExtraction() {
+        if (!ENABLED) {
+            return null;
+        }
+        final ExtractionEvent event = new ExtractionEvent();
+        return start(event) ? event : null;
+    }
+
+    public static ContextCreationEvent beginContextCreation(final String languages) {
+        if (!ENABLED) {
+            return null;
+        }
+        final ContextCreationEvent event = new ContextCreationEvent();
+        if (!start(event)) {
+            return null;
+        }
+        event.languages = languages;
+        return event;
+    }
+
+    public static LanguageInitEvent beginLanguageInit(final String language) {
+        if (!ENABLED) {
+            return null;
+        }
+        final LanguageInitEvent event = new LanguageInitEvent();
+        if (!start(event)) {
+            return null;
+        }
+        event.language = language;
+        return event;
+    }
+
+    public static EvalEvent beginEval(final String language, final boolean interactive) {
+        if (!ENABLED) {
+            return null;
+        }
+        final EvalEvent event = new EvalEvent();
+        if (!start(event)) {
+            return null;
+        }
+        event.language = language;
+        event.interactive = interactive;
+        return event;
+    }
+
+    public static InputWaitEvent beginInputWait() {
+        if (!ENABLED) {
+            return null;
+        }
+        final InputWaitEvent event = new InputWaitEvent();
+        return start(event) ? event : null;
+    }
+
+    public static StreamDrainEvent beginStreamDrain() {
+        if (!ENABLED) {
+            return null;
+        }
+        final StreamDrainEvent event = new StreamDrainEvent();
+        return start(event) ? event : null;
+    }
+
+    public static UpdateEvent beginUpdate() {
+        if (!ENABLED) {
+            return null;
+        }
+        final UpdateEvent event = new UpdateEvent();
+        return start(event) ? event : null;
+    }
+
+    public static ResumeEvent beginResume() {
+        if (!ENABLED) {
+            return null;
+        }
+        final ResumeEvent event = new ResumeEvent();
+        return start(event) ? event : null;
+    }
+
+    /**
+     * Commits event returned by one of the begin methods. Null events are ignored.
+     *
+     * @param event event to commit
+     */
+    public static void end(final Object event) {
+        if (event != null) {
+            Recorder.commit(event);
+        }
+    }
+
+    private static boolean start(final Object event) {
+        return Recorder.start(event);
+    }
+
+    @Name("com.oracle.labs.repl.Extraction")
+    @Label("Runtime Extraction")
+    @Category({"GraalVM REPL", "Startup"})
+    @StackTrace(false)
+    public static class ExtractionEvent extends Event {
+        @Label("Entries")
+        public int entries;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.oracle.labs.repl.ContextCreation")
+    @Label("Context Creation")
+    @Category({"GraalVM REPL", "Startup"})
+    @StackTrace(false)
+    public static class ContextCreationEvent extends Event {
+        @Label("Languages")
+        public String languages;
+    }
+
+    @Name("com.oracle.labs.repl.LanguageInit")
+    @Label("Language Initialization")
+    @Category({"GraalVM REPL", "Startup"})
+    @StackTrace(false)
+    public static class LanguageInitEvent extends Event {
+        @Label("Language")
+        public String language;
+    }
+
+    @Name("com.oracle.labs.repl.Eval")
+    @Label("Evaluation")
+    @Category({"GraalVM REPL", "Evaluation"})
+    @StackTrace(false)
+    public static class EvalEvent extends Event {
+        @Label("Language")
+        public String language;
+
+        @Label("Interactive")
+        public boolean interactive;
+
+        @Label("Source Length")
+        public int sourceLength;
+
+        @Label("Heap Before")
+        @DataAmount
+        public long heapBefore;
+
+        @Label("Heap After")
+        @DataAmount
+        public long heapAfter;
+
+        @Label("Allocated")
+        @DataAmount
+        public long allocated;
+    }
+
+    @Name("com.oracle.labs.repl.InputWait")
+    @Label("Input Wait")
+    @Category({"GraalVM REPL", "Evaluation"})
+    @StackTrace(false)
+    public static class InputWaitEvent extends Event {
+    }
+
+    @Name("com.oracle.labs.repl.StreamDrain")
+    @Label("Stream Drain")
+    @Category({"GraalVM REPL", "Terminal"})
+    @StackTrace(false)
+    public static class StreamDrainEvent extends Event {
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.oracle.labs.repl.Update")
+    @Label("Terminal Update")
+    @Category({"GraalVM REPL", "Terminal"})
+    @StackTrace(false)
+    public static class UpdateEvent extends Event {
+        @Label("Text Length")
+        public int textLength;
+    }
+
+    @Name("com.oracle.labs.repl.Resume")
+    @Label("Resume")
+    @Description("Time from lifecycle resume until the terminal is interactive again")
+    @Category({"GraalVM REPL", "Lifecycle"})
+    @StackTrace(false)
+    public static class ResumeEvent extends Event {
+        @Label("Trimmed On Pause")
+        public boolean trimmed;
+    }
+}
@@ -40,12 +40,20 @@
  */
 package com.oracle.labs.repl.streams;
 
+import com.oracle.labs.repl.events.ReplEvents;
+import com.oracle.labs.repl.events.ReplEvents.InputWaitEvent;
+
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
 
 /**
  * Custom InputStream implementation that supports thread-safe reading and writing of String objects.
+ *
+ * A script can be attached as the source of input, e.g. to replay a recorded session. While attached, each read
+ * that would otherwise wait for the user takes the next line of the script instead.
  */
 public class TerminalInputStream extends InputStream {
     private byte[] buffer;
@@ -54,6 +62,11 @@ public class TerminalInputStream extends InputStream {
 
     private boolean inputBlocked = false;
 
+    // Only read on the thread that reads from this stream
+    private volatile BufferedReader script;
+    private long pacing;
+    private Consumer<String> echo;
+
     public TerminalInputStream() {
         super();
         flushString = new StringBuilder();
@@ -64,7 +77,11 @@ public class TerminalInputStream extends InputStream {
     @Override
     public int read() throws IOException {
         if (buffer == null || pos >= buffer.length) {
+            if (flushString.length() == 0 && feedScript()) {
+                return buffer[pos++];
+            }
 
+            final InputWaitEvent event = flushString.length() == 0 ? ReplEvents.beginInputWait() : null;
             while (flushString.length() == 0) {
                 synchronized (this) {
                     inputBlocked = true;
@@ -75,6 +92,7 @@ public class TerminalInputStream extends InputStream {
                     }
                 }
             }
+            ReplEvents.end(event);
             synchronized (this) {
                 inputBlocked = false;
                 buffer = flushString.toString().getBytes(StandardCharsets.UTF_8);
@@ -85,6 +103,86 @@ public class TerminalInputStream extends InputStream {
         return buffer[pos++];
     }
 
+    /**
+     * Attaches script as the source of input.
+     *
+     * @param script       lines to feed, one per read that would wait for input
+     * @param pacingMillis delay before each line is fed, 0 for full speed
+     * @param echo         receives each fed line, e.g. to show it in the terminal, or null
+     */
+    public void attach(final BufferedReader script, final long pacingMillis, final Consumer<String> echo) {
+        this.pacing = pacingMillis;
+        this.echo = echo;
+        this.script = script;
+    }
+
+    public void detach() {
+        final BufferedReader current = script;
+        script = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return true if a script is attached and has more input. Detaches script once it is exhausted.
+     */
+    public boolean hasScript() {
+        final BufferedReader current = script;
+        if (current == null) {
+            return false;
+        }
+        try {
+            current.mark(1);
+            if (current.read() != -1) {
+                current.reset();
+                return true;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        detach();
+        return false;
+    }
+
+    private boolean feedScript() {
+        final BufferedReader current = script;
+        if (current == null) {
+            return false;
+        }
+        final String line;
+        try {
+            line = current.readLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+            detach();
+            return false;
+        }
+        if (line == null) {
+            detach(); // fall back to user input
+            return false;
+        }
+        if (pacing > 0) {
+            try {
+                Thread.sleep(pacing);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (echo != null) {
+            echo.accept(line + System.lineSeparator());
+        }
+        synchronized (this) {
+            buffer = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            pos = 0;
+        }
+        return true;
+    }
+
     public String readLine() {
         try {
             char c;
@@ -43,12 +43,70 @@ package com.oracle.labs.repl.streams;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Custom OutputStream implementation that supports writing of String objects and toString method.
  */
 public class TerminalOutputStream extends ByteArrayOutputStream {
 
+    private ByteArrayOutputStream capture;
+    private volatile Sink sink;
+
+    /**
+     * Receives a copy of everything written to the stream. Called on the writing thread, so it has to be cheap.
+     */
+    public interface Sink {
+        void write(byte[] b, int off, int len);
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        super.write(b);
+        if (capture != null) {
+            capture.write(b);
+        }
+        final Sink s = sink;
+        if (s != null) {
+            s.write(new byte[]{(byte) b}, 0, 1);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        super.write(b, off, len);
+        if (capture != null) {
+            capture.write(b, off, len);
+        }
+        final Sink s = sink;
+        if (s != null) {
+            s.write(b, off, len);
+        }
+    }
+
+    /**
+     * @param sink sink that receives copy of the output, or null to remove it
+     */
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Starts recording everything written to this stream, independently of the terminal draining it.
+     */
+    public synchronized void startCapture() {
+        capture = new ByteArrayOutputStream();
+    }
+
+    /**
+     * @return text written since {@link #startCapture()}, or empty string if capture was not started
+     */
+    public synchronized String stopCapture() {
+        final String captured = capture != null ? capture.toString(StandardCharsets.UTF_8) : "";
+        capture = null;
+        return captured;
+    }
+
     public void write(String s) {
         try {
             this.write(s.getBytes(StandardCharsets.UTF_8));
@@ -61,6 +119,15 @@ public class TerminalOutputStream extends ByteArrayOutputStream {
         this.write(s + System.lineSeparator());
     }
 
+    /**
+     * Shrinks internal buffer to its content. Buffer keeps its largest size otherwise.
+     */
+    public synchronized void trim() {
+        if (buf.length > Math.max(count, 32)) {
+            buf = Arrays.copyOf(buf, Math.max(count, 32));
+        }
+    }
+
     @Override
     public String toString() {
         return super.toString(StandardCharsets.UTF_8);
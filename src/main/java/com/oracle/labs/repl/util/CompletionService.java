@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.util.languages.LanguageAdapter;
+import javafx.application.Platform;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tab completion based on polyglot member introspection.
+ *
+ * Candidates are member names of language bindings, or of the dotted expression before the caret. Lookups run
+ * on the evaluation thread and only when no evaluation is running. Member names are cached per context and
+ * expression, until the next evaluation finishes.
+ *
+ * Walking a dotted expression must not run guest code with side effects, so members of language objects are only
+ * followed through the language's {@link LanguageAdapter#memberLookup()} function, which skips accessors. Host
+ * objects and REPL proxies are walked directly, their members have no accessors.
+ */
+public class CompletionService {
+
+    private static final long DEBOUNCE_MS = 150;
+
+    private final Interpreter interpreter;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "completion");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> pending;
+    private long requestId;
+
+    // Sorted member names per context and expression, valid for a single evaluation count.
+    private final Map<Context, Map<String, String[]>> cache = new WeakHashMap<>();
+    private long cacheStamp = -1;
+
+    // Member lookup function sources per language, parsed once per context by the language itself
+    private final Map<String, Source> lookups = new HashMap<>();
+
+    /**
+     * Result of completion, candidates replace code between from and caret.
+     */
+    public static final class Completion {
+        public final int from;
+        public final String prefix;
+        public final List<String> candidates;
+
+        Completion(int from, String prefix, List<String> candidates) {
+            this.from = from;
+            this.prefix = prefix;
+            this.candidates = candidates;
+        }
+
+        /**
+         * @return longest prefix shared by all candidates
+         */
+        public String commonPrefix() {
+            if (candidates.isEmpty()) {
+                return prefix;
+            }
+            String common = candidates.get(0);
+            for (String candidate : candidates) {
+                int i = 0;
+                while (i < common.length() && i < candidate.length() && common.charAt(i) == candidate.charAt(i)) {
+                    i++;
+                }
+                common = common.substring(0, i);
+            }
+            return common;
+        }
+    }
+
+    public CompletionService(final Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Requests completion of code before caret. Repeated requests within debounce interval replace each other.
+     *
+     * @param code     current code
+     * @param caret    caret position within code
+     * @param onResult receives completion on the FX thread, not called if there is nothing to complete
+     */
+    public synchronized void complete(final String code, final int caret, final Consumer<Completion> onResult) {
+        final long id = ++requestId;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = scheduler.schedule(() -> lookup(id, code.substring(0, caret), onResult), DEBOUNCE_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void lookup(final long id, final String before, final Consumer<Completion> onResult) {
+        int start = before.length();
+        while (start > 0 && isPathChar(before.charAt(start - 1))) {
+            start--;
+        }
+        final String path = before.substring(start);
+        final int dot = path.lastIndexOf('.');
+        final String target = dot < 0 ? "" : path.substring(0, dot);
+        final String prefix = path.substring(dot + 1);
+        if (!isValidTarget(target) || (prefix.isEmpty() && target.isEmpty())) {
+            return;
+        }
+
+        final String language = interpreter.getLanguageName();
+        final Source lookup = lookup(language, interpreter.getLanguageAdapter());
+        final String key = language + ':' + target;
+        final String[] cached = cached(key);
+        if (cached != null) {
+            deliver(id, new Completion(before.length() - prefix.length(), prefix, filter(cached, prefix)), onResult);
+        } else if (!interpreter.isBlocked()) {
+            final long stamp = interpreter.getEvaluationCount();
+            interpreter.runOnEvaluationThread(context -> {
+                // An evaluation may have started after the check above, this lookup then ran after it and is stale
+                final boolean evaluated = interpreter.isBlocked() || interpreter.getEvaluationCount() != stamp;
+                return evaluated ? null : memberNames(context, language, target, lookup);
+            }).thenAccept(names -> {
+                        if (names == null) {
+                            return;
+                        }
+                        store(key, names);
+                        deliver(id, new Completion(before.length() - prefix.length(), prefix,
+                                filter(names, prefix)), onResult);
+                    });
+        }
+    }
+
+    private void deliver(final long id, final Completion completion, final Consumer<Completion> onResult) {
+        if (completion.candidates.isEmpty()) {
+            return;
+        }
+        Platform.runLater(() -> {
+            synchronized (this) {
+                if (id != requestId) {
+                    return; // superseded by newer request
+                }
+            }
+            onResult.accept(completion);
+        });
+    }
+
+    /**
+     * Drops cached member names, e.g. when context was replaced.
+     */
+    public synchronized void invalidate() {
+        cache.clear();
+    }
+
+    private synchronized String[] cached(final String key) {
+        final Map<String, String[]> names = cache.get(interpreter.getContext());
+        if (names == null || cacheStamp != interpreter.getEvaluationCount()) {
+            return null;
+        }
+        return names.get(key);
+    }
+
+    private synchronized void store(final String key, final String[] names) {
+        final long stamp = interpreter.getEvaluationCount();
+        if (stamp != cacheStamp) {
+            cache.clear();
+            cacheStamp = stamp;
+        }
+        cache.computeIfAbsent(interpreter.getContext(), c -> new HashMap<>()).put(key, names);
+    }
+
+    private synchronized Source lookup(final String language, final LanguageAdapter adapter) {
+        return lookups.computeIfAbsent(language, l -> {
+            final String code = adapter.memberLookup();
+            return code != null ? Source.newBuilder(l, code, "<completion>").internal(true).buildLiteral() : null;
+        });
+    }
+
+    private static String[] memberNames(final Context context, final String language, final String target,
+                                        final Source lookup) {
+        try {
+            Value value = context.getBindings(language);
+            if (!target.isEmpty()) {
+                final Value lookupFunction = lookup != null ? context.eval(lookup) : null;
+                boolean bindings = true;
+                for (String part : target.split("\\.")) {
+                    if (value == null || !value.hasMember(part)) {
+                        return new String[0];
+                    }
+                    if (bindings || value.isHostObject() || value.isProxyObject()) {
+                        value = value.getMember(part); // variables, host fields and proxy members have no accessors
+                    } else if (lookupFunction != null) {
+                        value = lookupFunction.execute(value, part);
+                    } else {
+                        return new String[0];
+                    }
+                    bindings = false;
+                }
+            }
+            if (value == null || !value.hasMembers()) {
+                return new String[0];
+            }
+            final String[] names = value.getMemberKeys().toArray(new String[0]);
+            Arrays.sort(names);
+            return names;
+        } catch (PolyglotException | IllegalStateException e) {
+            return new String[0];
+        }
+    }
+
+    private static List<String> filter(final String[] names, final String prefix) {
+        int index = Arrays.binarySearch(names, prefix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        final List<String> result = new ArrayList<>();
+        while (index < names.length && names[index].startsWith(prefix)) {
+            result.add(names[index++]);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static boolean isPathChar(final char c) {
+        return c == '.' || c == '$' || c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private static boolean isValidTarget(final String target) {
+        if (target.isEmpty()) {
+            return true;
+        }
+        for (String part : target.split("\\.", -1)) {
+            if (part.isEmpty() || Character.isDigit(part.charAt(0))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
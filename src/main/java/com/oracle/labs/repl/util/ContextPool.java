@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import org.graalvm.polyglot.Context;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Polyglot contexts used by the interpreter.
+ *
+ * In shared mode a single context hosts all languages, as it always did. In per-language mode every language
+ * gets its own context on the shared engine, created on first use. Contexts of languages that were not used for
+ * a while, or all but the current one under memory pressure, can be closed to release their heaps; they are
+ * created again the next time their language is used, without the state they had.
+ *
+ * Contexts are created, used and closed on the evaluation thread only. Other threads may only peek.
+ */
+public class ContextPool {
+
+    private static final String SHARED = "";
+
+    private final Function<String, Context> factory;
+    private final boolean perLanguage;
+    private final long idleMillis;
+
+    private final Map<String, Entry> contexts = new ConcurrentHashMap<>();
+    private final Set<String> evicted = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private static final class Entry {
+        final Context context;
+        final long id = IDS.incrementAndGet();
+        volatile long lastUsed;
+
+        Entry(Context context) {
+            this.context = context;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param factory     creates context for given language, or for all languages if given null
+     * @param perLanguage whether each language gets its own context
+     * @param idleMillis  time after which unused per-language context may be closed
+     */
+    public ContextPool(final Function<String, Context> factory, final boolean perLanguage, final long idleMillis) {
+        this.factory = factory;
+        this.perLanguage = perLanguage;
+        this.idleMillis = idleMillis;
+    }
+
+    public boolean isPerLanguage() {
+        return perLanguage;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * Returns context for given language, creating it if needed, and marks it as used.
+     *
+     * @param language language name
+     * @return context
+     */
+    public Context get(final String language) {
+        final String key = perLanguage ? language : SHARED;
+        Entry entry = contexts.get(key);
+        if (entry == null) {
+            entry = new Entry(factory.apply(perLanguage ? language : null));
+            contexts.put(key, entry);
+        }
+        entry.lastUsed = System.currentTimeMillis();
+        return entry.context;
+    }
+
+    /**
+     * @param language language name
+     * @return context for given language, or null if it is not open
+     */
+    public Context peek(final String language) {
+        final Entry entry = contexts.get(perLanguage ? language : SHARED);
+        return entry != null ? entry.context : null;
+    }
+
+    /**
+     * @param language language name
+     * @return id of open context for given language, unique for the lifetime of the pool, or -1 if it is not open
+     */
+    public long idOf(final String language) {
+        final Entry entry = contexts.get(perLanguage ? language : SHARED);
+        return entry != null ? entry.id : -1;
+    }
+
+    /**
+     * Closes per-language contexts that were not used for longer than idle time.
+     *
+     * @param current language in use, never closed
+     * @return number of closed contexts
+     */
+    public int evictIdle(final String current) {
+        final long threshold = System.currentTimeMillis() - idleMillis;
+        return evict(current, threshold);
+    }
+
+    /**
+     * Closes all per-language contexts except the one in use, e.g. under memory pressure.
+     *
+     * @param current language in use, never closed
+     * @return number of closed contexts
+     */
+    public int trim(final String current) {
+        return evict(current, Long.MAX_VALUE);
+    }
+
+    private int evict(final String current, final long threshold) {
+        if (!perLanguage) {
+            return 0;
+        }
+        int closed = 0;
+        for (Map.Entry<String, Entry> entry : contexts.entrySet()) {
+            if (!entry.getKey().equals(current) && entry.getValue().lastUsed < threshold) {
+                try {
+                    entry.getValue().context.close();
+                } catch (IllegalStateException e) {
+                    continue; // still entered, e.g. by a nested evaluation
+                }
+                contexts.remove(entry.getKey());
+                evicted.add(entry.getKey());
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Reports (once) whether context of given language was closed since it was last used.
+     *
+     * @param language language name
+     * @return true if state of the language was dropped
+     */
+    public boolean takeEvicted(final String language) {
+        return evicted.remove(language);
+    }
+}
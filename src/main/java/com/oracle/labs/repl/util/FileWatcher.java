@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches files for changes using WatchService and reports them, debounced, to a listener.
+ */
+public class FileWatcher {
+
+    private static final long DEBOUNCE_MS = 200;
+
+    private final Consumer<Path> listener;
+    private final Set<Path> files = ConcurrentHashMap.newKeySet();
+    private final Map<Path, WatchKey> directories = new HashMap<>();
+    private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "file-watcher-debounce");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private WatchService service;
+
+    public FileWatcher(final Consumer<Path> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching given file.
+     *
+     * @param file file path
+     * @throws IOException directory could not be registered
+     */
+    public synchronized void watch(final Path file) throws IOException {
+        final Path path = file.toAbsolutePath().normalize();
+        final Path directory = path.getParent();
+        if (service == null) {
+            service = FileSystems.getDefault().newWatchService();
+            final Thread thread = new Thread(this::poll, "file-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        if (!directories.containsKey(directory)) {
+            directories.put(directory, directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY));
+        }
+        files.add(path);
+    }
+
+    /**
+     * Stops watching given file.
+     *
+     * @param file file path
+     */
+    public synchronized void unwatch(final Path file) {
+        final Path path = file.toAbsolutePath().normalize();
+        files.remove(path);
+        final Path directory = path.getParent();
+        if (files.stream().noneMatch(f -> directory.equals(f.getParent()))) {
+            final WatchKey key = directories.remove(directory);
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    private void poll() {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            final Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    continue;
+                }
+                final Path changed = directory.resolve((Path) event.context());
+                if (files.contains(changed)) {
+                    // Editors often write a file in several steps, so report only the last change.
+                    final ScheduledFuture<?> previous = pending.put(changed, scheduler.schedule(() -> {
+                        pending.remove(changed);
+                        listener.accept(changed);
+                    }, DEBOUNCE_MS, TimeUnit.MILLISECONDS));
+                    if (previous != null) {
+                        previous.cancel(false);
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+}
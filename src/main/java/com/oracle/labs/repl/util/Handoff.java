@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Host-side store for passing values between contexts, e.g. between cells running in parallel.
+ *
+ * Guest values belong to their context and cannot be used in another one, so values are converted to host data
+ * when stored: numbers, strings and booleans as they are, arrays as lists, objects with members as maps and host
+ * objects (such as shared buffers) by reference. Anything else is stored as its string representation.
+ */
+public class Handoff implements ProxyObject {
+
+    private static final int MAX_DEPTH = 16;
+
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    /**
+     * Converts guest value to host data that can outlive its context.
+     *
+     * @param value guest value
+     * @return host data, or null
+     */
+    public static Object toHost(final Value value) {
+        return toHost(value, 0);
+    }
+
+    private static Object toHost(final Value value, final int depth) {
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        if (value.isBoolean()) {
+            return value.asBoolean();
+        }
+        if (value.isNumber()) {
+            return value.fitsInLong() ? (Object) value.asLong() : (Object) value.asDouble();
+        }
+        if (value.isString()) {
+            return value.asString();
+        }
+        if (value.isHostObject()) {
+            return value.asHostObject();
+        }
+        if (value.isProxyObject()) {
+            return value.asProxyObject();
+        }
+        if (depth < MAX_DEPTH && value.hasArrayElements()) {
+            final List<Object> list = new ArrayList<>();
+            for (long i = 0; i < value.getArraySize(); i++) {
+                list.add(toHost(value.getArrayElement(i), depth + 1));
+            }
+            return list;
+        }
+        if (depth < MAX_DEPTH && value.hasMembers() && !value.canExecute()) {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            for (String key : value.getMemberKeys()) {
+                map.put(key, toHost(value.getMember(key), depth + 1));
+            }
+            return map;
+        }
+        return value.toString();
+    }
+
+    /**
+     * Converts host data produced by {@link #toHost(Value)} to a form guests can index.
+     */
+    @SuppressWarnings("unchecked")
+    static Object toGuest(final Object data) {
+        if (data instanceof List) {
+            final List<Object> list = (List<Object>) data;
+            final Object[] elements = new Object[list.size()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = toGuest(list.get(i));
+            }
+            return ProxyArray.fromArray(elements);
+        }
+        if (data instanceof Map) {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            ((Map<String, Object>) data).forEach((key, value) -> map.put(key, toGuest(value)));
+            return ProxyObject.fromMap(map);
+        }
+        return data;
+    }
+
+    public void put(final String key, final Object data) {
+        if (data == null) {
+            values.remove(key);
+        } else {
+            values.put(key, data);
+        }
+    }
+
+    public Object get(final String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public Object getMember(final String key) {
+        return toGuest(values.get(key));
+    }
+
+    @Override
+    public Object getMemberKeys() {
+        return ProxyArray.fromArray(values.keySet().toArray());
+    }
+
+    @Override
+    public boolean hasMember(final String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public void putMember(final String key, final Value value) {
+        put(key, toHost(value));
+    }
+
+    @Override
+    public boolean removeMember(final String key) {
+        return values.remove(key) != null;
+    }
+}
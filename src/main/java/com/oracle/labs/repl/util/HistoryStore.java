@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Persistent, append-only command history of a single language.
+ *
+ * Entries are appended to a log file, separated by NUL bytes, and the start offset of every entry is appended to
+ * an index file as a big-endian long. Only the most recent entries are kept in memory. Older entries are reached
+ * through reverse search, which scans the memory-mapped files on a background thread. All file access happens on
+ * that thread, so the FX thread never blocks on I/O.
+ */
+public class HistoryStore {
+
+    public static final int WINDOW_SIZE = 1000;
+
+    private static final byte SEPARATOR = 0;
+    private static final int CANCEL_CHECK_INTERVAL = 64 * 1024;
+
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "history-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // Give pending appends a chance to reach the disk.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            IO.shutdown();
+            try {
+                IO.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        }));
+    }
+
+    private final String[] window = new String[WINDOW_SIZE];
+    private int windowHead; // slot of the next entry
+    private int windowCount;
+    private long size; // total number of entries, including those not yet written
+
+    private volatile boolean persistent; // cleared if history directory cannot be created
+    private final AtomicInteger searchGeneration = new AtomicInteger();
+
+    // Only accessed from the I/O thread
+    private FileChannel log;
+    private FileChannel index;
+    private long logSize;
+
+    /**
+     * Match of reverse search.
+     */
+    public static final class Match {
+        public final long index;
+        public final String text;
+
+        Match(long index, String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+
+    private HistoryStore(final String name) {
+        persistent = name != null;
+        if (name != null) {
+            IO.execute(() -> {
+                final Path directory;
+                try {
+                    directory = AppFiles.dataDirectory("history");
+                } catch (IOException e) {
+                    e.printStackTrace(); // history will only be kept in memory
+                    persistent = false;
+                    return;
+                }
+                load(directory.resolve(name + ".log"), directory.resolve(name + ".idx"));
+            });
+        }
+    }
+
+    /**
+     * Opens history of given language. History directory is resolved and files are loaded asynchronously, entries
+     * added in the meantime are kept.
+     *
+     * @param language language name
+     * @return history store
+     */
+    public static HistoryStore open(String language) {
+        return new HistoryStore(language);
+    }
+
+    /**
+     * @return history store that is not backed by files
+     */
+    public static HistoryStore inMemory() {
+        return new HistoryStore(null);
+    }
+
+    /**
+     * Appends entry to history. Returns immediately, entry is written on the I/O thread.
+     *
+     * @param entry history entry
+     */
+    public synchronized void add(String entry) {
+        final String clean = entry.replace((char) SEPARATOR, ' ');
+        window[windowHead] = clean;
+        windowHead = (windowHead + 1) % WINDOW_SIZE;
+        windowCount = Math.min(windowCount + 1, WINDOW_SIZE);
+        size++;
+        IO.execute(() -> append(clean));
+    }
+
+    /**
+     * Returns one of the entries kept in memory.
+     *
+     * @param position 1 for the newest entry, 2 for the one before it etc.
+     * @return entry or null if position is outside of in-memory window
+     */
+    public synchronized String recent(int position) {
+        if (position < 1 || position > windowCount) {
+            return null;
+        }
+        return window[Math.floorMod(windowHead - position, WINDOW_SIZE)];
+    }
+
+    /**
+     * @return number of entries available through {@link #recent(int)}
+     */
+    public synchronized int windowSize() {
+        return windowCount;
+    }
+
+    /**
+     * @return total number of entries
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Searches backwards for the newest entry containing query. In-memory entries are searched on the calling
+     * thread, older ones on the I/O thread. Starting a new search cancels the previous one.
+     *
+     * @param query    text to look for
+     * @param before   index of the entry after the last one to consider
+     * @param onResult receives match or null, on the FX thread
+     */
+    public void search(String query, long before, Consumer<Match> onResult) {
+        final int generation = searchGeneration.incrementAndGet();
+        if (query.isEmpty()) {
+            onResult.accept(null);
+            return;
+        }
+
+        final long diskBefore;
+        synchronized (this) {
+            final long windowStart = size - windowCount;
+            for (long i = Math.min(before, size) - 1; i >= windowStart; i--) {
+                final String entry = recent((int) (size - i));
+                if (entry.contains(query)) {
+                    onResult.accept(new Match(i, entry));
+                    return;
+                }
+            }
+            diskBefore = Math.min(before, windowStart);
+        }
+
+        if (diskBefore <= 0) {
+            onResult.accept(null);
+            return;
+        }
+
+        IO.execute(() -> {
+            Match match = null;
+            try {
+                match = scan(query.getBytes(StandardCharsets.UTF_8), diskBefore, generation);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            final Match result = match;
+            Platform.runLater(() -> {
+                if (generation == searchGeneration.get()) {
+                    onResult.accept(result);
+                }
+            });
+        });
+    }
+
+    /**
+     * Cancels running search, its result will not be delivered.
+     */
+    public void cancelSearch() {
+        searchGeneration.incrementAndGet();
+    }
+
+    private void load(final Path logPath, final Path indexPath) {
+        try {
+            log = FileChannel.open(logPath, CREATE, READ, WRITE);
+            index = FileChannel.open(indexPath, CREATE, READ, WRITE);
+            logSize = log.size();
+
+            long entries = index.size() / Long.BYTES;
+            if (!isIndexConsistent(entries)) {
+                entries = rebuildIndex();
+            }
+
+            final List<String> stored = readTail(entries);
+            synchronized (this) {
+                // Entries added while loading are newer than anything on disk.
+                final List<String> added = new ArrayList<>();
+                for (int i = windowCount; i > 0; i--) {
+                    added.add(recent(i));
+                }
+                windowHead = 0;
+                windowCount = 0;
+                for (String entry : stored) {
+                    window[windowHead] = entry;
+                    windowHead = (windowHead + 1) % WINDOW_SIZE;
+                    windowCount = Math.min(windowCount + 1, WINDOW_SIZE);
+                }
+                for (String entry : added) {
+                    window[windowHead] = entry;
+                    windowHead = (windowHead + 1) % WINDOW_SIZE;
+                    windowCount = Math.min(windowCount + 1, WINDOW_SIZE);
+                }
+                size = entries + added.size();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeFiles();
+        }
+    }
+
+    private boolean isIndexConsistent(long entries) throws IOException {
+        if (index.size() % Long.BYTES != 0) {
+            return false;
+        }
+        if (entries == 0) {
+            return logSize == 0;
+        }
+
+        // Last entry has to span exactly to the end of the log.
+        final long lastOffset = offset(entries - 1);
+        if (lastOffset < 0 || lastOffset >= logSize || logSize - lastOffset > Integer.MAX_VALUE) {
+            return false;
+        }
+        final ByteBuffer last = ByteBuffer.allocate((int) (logSize - lastOffset));
+        readFully(log, last, lastOffset);
+        for (int i = 0; i < last.limit() - 1; i++) {
+            if (last.get(i) == SEPARATOR) {
+                return false;
+            }
+        }
+        return last.get(last.limit() - 1) == SEPARATOR;
+    }
+
+    private long rebuildIndex() throws IOException {
+        index.truncate(0);
+        final ByteBuffer offsets = ByteBuffer.allocate(8 * 1024);
+        long count = 0;
+        long start = 0;
+        long position = 0;
+
+        while (position < logSize) {
+            final long length = Math.min(logSize - position, Integer.MAX_VALUE);
+            final MappedByteBuffer data = log.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i < length; i++) {
+                if (data.get(i) == SEPARATOR) {
+                    if (!offsets.hasRemaining()) {
+                        offsets.flip();
+                        writeFully(index, offsets, index.size());
+                        offsets.clear();
+                    }
+                    offsets.putLong(start);
+                    count++;
+                    start = position + i + 1;
+                }
+            }
+            position += length;
+        }
+        offsets.flip();
+        writeFully(index, offsets, index.size());
+
+        if (start < logSize) {
+            // Drop partially written entry.
+            log.truncate(start);
+            logSize = start;
+        }
+        return count;
+    }
+
+    private List<String> readTail(long entries) throws IOException {
+        final List<String> result = new ArrayList<>();
+        if (entries == 0) {
+            return result;
+        }
+        final long from = offset(Math.max(0, entries - WINDOW_SIZE));
+        final ByteBuffer data = ByteBuffer.allocate((int) Math.min(logSize - from, Integer.MAX_VALUE));
+        readFully(log, data, from);
+
+        int start = 0;
+        for (int i = 0; i < data.limit(); i++) {
+            if (data.get(i) == SEPARATOR) {
+                result.add(new String(data.array(), start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+
+    private void append(final String entry) {
+        if (log == null) {
+            return;
+        }
+        try {
+            final byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer data = ByteBuffer.allocate(bytes.length + 1);
+            data.put(bytes).put(SEPARATOR).flip();
+            final ByteBuffer offset = ByteBuffer.allocate(Long.BYTES);
+            offset.putLong(logSize).flip();
+
+            // Log goes first, so a crash in between is detected and repaired by isIndexConsistent.
+            writeFully(log, data, logSize);
+            writeFully(index, offset, index.size());
+            logSize += data.limit();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeFiles();
+        }
+    }
+
+    private Match scan(final byte[] needle, final long before, final int generation) throws IOException {
+        if (log == null) {
+            return null;
+        }
+        final long entries = Math.min(before, index.size() / Long.BYTES);
+        if (entries <= 0 || entries * Long.BYTES > Integer.MAX_VALUE) {
+            return null;
+        }
+        final MappedByteBuffer offsets = index.map(FileChannel.MapMode.READ_ONLY, 0, entries * Long.BYTES);
+        final long end = entries == index.size() / Long.BYTES ? logSize : offset(entries);
+        final long start = Math.max(0, end - Integer.MAX_VALUE);
+        final MappedByteBuffer data = log.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+
+        for (int pos = data.limit() - needle.length; pos >= 0; pos--) {
+            if ((pos & (CANCEL_CHECK_INTERVAL - 1)) == 0 && generation != searchGeneration.get()) {
+                return null;
+            }
+            if (matches(data, pos, needle)) {
+                final long entry = findEntry(offsets, entries, start + pos);
+                final long from = offsets.getLong((int) (entry * Long.BYTES));
+                final long to = entry + 1 < entries ? offsets.getLong((int) ((entry + 1) * Long.BYTES)) : end;
+                if (from < start) {
+                    return null; // entry starts outside of mapped region
+                }
+                final byte[] text = new byte[(int) (to - from - 1)];
+                final ByteBuffer slice = data.duplicate();
+                slice.position((int) (from - start));
+                slice.get(text);
+                return new Match(entry, new String(text, StandardCharsets.UTF_8));
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(ByteBuffer data, int pos, byte[] needle) {
+        for (int i = 0; i < needle.length; i++) {
+            if (data.get(pos + i) != needle[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Binary search for the entry containing given log offset.
+     */
+    private static long findEntry(ByteBuffer offsets, long entries, long position) {
+        long low = 0;
+        long high = entries - 1;
+        while (low < high) {
+            final long mid = (low + high + 1) >>> 1;
+            if (offsets.getLong((int) (mid * Long.BYTES)) <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private long offset(long entry) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        readFully(index, buffer, entry * Long.BYTES);
+        return buffer.getLong(0);
+    }
+
+    /**
+     * @return true if entries are kept in files and can be loaded again after {@link #close()}
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Closes history files once pending writes are done. Store must not be used afterwards.
+     */
+    public void close() {
+        cancelSearch();
+        IO.execute(this::closeFiles);
+    }
+
+    private void closeFiles() {
+        try {
+            if (log != null) {
+                log.close();
+            }
+            if (index != null) {
+                index.close();
+            }
+        } catch (IOException ignored) {
+        }
+        log = null;
+        index = null;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of history file");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -40,6 +40,10 @@
  */
 package com.oracle.labs.repl.util;
 
+import com.oracle.labs.repl.events.ReplEvents;
+import com.oracle.labs.repl.events.ReplEvents.ContextCreationEvent;
+import com.oracle.labs.repl.events.ReplEvents.EvalEvent;
+import com.oracle.labs.repl.events.ReplEvents.LanguageInitEvent;
 import com.oracle.labs.repl.util.languages.LanguageAdapter;
 import javafx.application.Platform;
 import javafx.concurrent.Task;
@@ -48,16 +52,36 @@ import org.graalvm.polyglot.Context.Builder;
 import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
 /**
  * Singleton class that provides interpreter access trough TerminalComponent.
@@ -68,16 +92,51 @@ public class Interpreter {
     private final Map<String, LanguageAdapter> languageImplementations;
     private final List<String> availableLanguages;
 
-    private final Context polyglot;
+    private final Engine engine;
+    private final ContextPool contexts;
+    private final Map<String, Object> bindings = new HashMap<>();
     private int languageIndex = 0;
 
     private static TerminalComponent term;
 
+    private final SourceCache sourceCache = new SourceCache();
+    private final FileWatcher fileWatcher = new FileWatcher(this::rerunFile);
+    private final ValueInspector inspector;
+    private final Map<String, Map.Entry<Context, Value>> stringHeads = new HashMap<>(); // evaluation thread only
+    private final WarmupService warmup;
+    private final Profiler profiler;
+    private final MemoryDiagnostics memory;
+    private final TimeIt timeIt;
+    private final SharedBuffers buffers = new SharedBuffers();
+    private final Handoff handoff = new Handoff();
+    private final ParallelRunner parallelRunner;
+    private TranscriptWriter transcript;
+    private final LogBuffer logBuffer;
+    private volatile Value lastResult;
+
     private boolean blocked; // is interpreter waiting for previous command execution?
+    private final Map<Long, EvalTask> pending = new LinkedHashMap<>(); // queued commands, guarded by itself
+    private long nextCommandId = 1;
+    private volatile long evaluationCount;
+    private String taskLanguage; // language a command was submitted in, only used on the evaluation thread
+
+    // Polyglot context is only used from this thread once initialization is done.
+    private final ExecutorService evaluator = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "evaluation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService evictionScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "context-eviction");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public Interpreter(final TerminalComponent term) {
         Interpreter.term = term;
         blocked = false;
+        inspector = new ValueInspector(term.out, () -> lastResult, this::stringHead);
+        logBuffer = new LogBuffer(term.log);
 
         // Unpack language files
         System.out.print("Unpacking language runtimes...");
@@ -114,22 +173,25 @@ public class Interpreter {
             System.exit(1);
         }
 
-        // Create builder
-        System.out.print("Creating context builder... ");
-
-        Builder builder = Context.newBuilder().in(term.in).out(term.out).logHandler(term.log)
-                .err(term.err).allowAllAccess(true);
-
-        for (LanguageAdapter language : languageImplementations.values()) {
-            language.addContextOptions(builder);
+        // Create shared engine
+        System.out.print("Creating engine... ");
+        engine = newEngineBuilder().build();
+        System.out.println("Done (" + engine.getImplementationName() + ").");
+        if (Boolean.getBoolean("repl.jit") && engine.getImplementationName().equals("Interpreted")) {
+            System.err.println("JIT was requested, but Truffle runtime is interpreter-only.");
         }
 
-        polyglot = builder.build();
-        System.out.println("Done.");
+        // Background contexts for warm-up replay, with guest output discarded
+        warmup = WarmupService.open(() -> newContextBuilder(engine).in(InputStream.nullInputStream())
+                .out(OutputStream.nullOutputStream()).err(OutputStream.nullOutputStream()).build(),
+                sourceCache, languageImplementations.keySet());
 
-        // Now, add language bindings
-        System.out.println("Adding language bindings... ");
+        profiler = new Profiler(term.out);
+        memory = new MemoryDiagnostics(term.out);
+        timeIt = new TimeIt(term.out);
+        parallelRunner = new ParallelRunner(this::newWorkerContext);
 
+        // Bindings are added to every context that is created
         final IntSupplier exit = () -> {
             Platform.exit();
             System.exit(0);
@@ -141,25 +203,378 @@ public class Interpreter {
             return 0;
         };
 
-        for (LanguageAdapter language : languageImplementations.values()) {
-            System.out.println("Language: " + language.languageName());
-            language.putBindings(polyglot, clear, exit);
+        final ProxyExecutable run = args -> {
+            try {
+                return runFile(pathArgument(args));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        final ProxyExecutable watch = args -> {
+            final Path path = pathArgument(args);
+            try {
+                fileWatcher.watch(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return "Watching " + path + ", it will be run on every change.";
+        };
+
+        final ProxyExecutable unwatch = args -> {
+            fileWatcher.unwatch(pathArgument(args));
+            return null;
+        };
+
+        bindings.put("clear", clear);
+        bindings.put("quit", exit);
+        bindings.put("exit", exit);
+        bindings.put("run", run);
+        bindings.put("watch", watch);
+        bindings.put("unwatch", unwatch);
+        bindings.put("inspector", inspector.toBinding());
+        bindings.put("stopWarmup", (ProxyExecutable) args -> {
+            warmup.cancel();
+            return null;
+        });
+        bindings.put("profile", (ProxyExecutable) args -> {
+            try {
+                final Path file = args.length > 1 ? Paths.get(args[1].asString())
+                        : AppFiles.dataDirectory("profiles").resolve("profile-" + System.currentTimeMillis()
+                        + ".collapsed");
+                profiler.profile(context(), language(), stringArgument(args, "code"), file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        });
+        bindings.put("memory", (ProxyExecutable) args -> {
+            memory.setEnabled(args.length > 0 ? args[0].asBoolean() : !memory.isEnabled());
+            return "Memory diagnostics " + (memory.isEnabled() ? "enabled." : "disabled.");
+        });
+        bindings.put("traceMemory", (ProxyExecutable) args -> {
+            memory.trace(context(), language(), stringArgument(args, "code"));
+            return null;
+        });
+        bindings.put("timeit", (ProxyExecutable) args -> {
+            timeIt.run(context(), language(), stringArgument(args, "code"),
+                    args.length > 1 ? args[1].asInt() : TimeIt.DEFAULT_WARMUP,
+                    args.length > 2 ? args[2].asInt() : TimeIt.DEFAULT_ITERATIONS);
+            return null;
+        });
+        bindings.put("buffers", buffers.toBinding());
+        bindings.put("handoff", handoff);
+        bindings.put("parallel", (ProxyExecutable) args -> {
+            final List<ParallelRunner.Task> tasks = new ArrayList<>();
+            for (Value arg : args) {
+                final boolean pair = arg.hasArrayElements();
+                tasks.add(new ParallelRunner.Task(pair ? arg.getArrayElement(0).asString() : language(),
+                        (pair ? arg.getArrayElement(1) : arg).asString(), "<parallel " + (tasks.size() + 1) + ">"));
+            }
+            final List<ParallelRunner.Result> results = runParallel(tasks).join();
+            term.out.write(ParallelRunner.format(results));
+            final List<Object> values = new ArrayList<>();
+            results.forEach(result -> values.add(result.value));
+            return Handoff.toGuest(values);
+        });
+        bindings.put("transcript", (ProxyExecutable) args -> {
+            final boolean enable = args.length > 0 ? args[0].asBoolean() : transcript == null;
+            try {
+                return setTranscript(enable);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        bindings.put("logs", (ProxyExecutable) args -> {
+            final List<String> records = logBuffer.query(Level.parse(args.length > 0 ? args[0].asString() : "ALL"),
+                    args.length > 1 ? args[1].asString() : null, args.length > 2 ? args[2].asInt() : 50);
+            term.out.writeLine(records.isEmpty() ? "No log records." : String.join(System.lineSeparator(), records));
+            return null;
+        });
+        bindings.put("inspect", (ProxyExecutable) args -> {
+            inspector.show(args.length > 0 ? args[0] : lastResult);
+            return null;
+        });
+
+        if (Boolean.getBoolean("repl.transcript")) {
+            try {
+                System.out.println(setTranscript(true));
+            } catch (IOException e) {
+                System.err.println("Transcript could not be started: " + e.getMessage());
+            }
         }
+
+        // Create context(s), per-language contexts are created when their language is first used
+        final boolean perLanguage = "per-language".equals(System.getProperty("repl.contexts"));
+        final long idleMillis = Long.getLong("repl.contexts.idle", 300) * 1000;
+        contexts = new ContextPool(this::createContext, perLanguage, idleMillis);
+
+        System.out.print("Creating " + (perLanguage ? "per-language contexts" : "context") + "... ");
+        contexts.get(getLanguageName());
         System.out.println("Done.");
 
-        // Initialize languages
-        System.out.println("Initializing languages... ");
+        if (perLanguage) {
+            evictionScheduler.scheduleWithFixedDelay(() -> evaluator.execute(this::evictContexts),
+                    idleMillis / 2, idleMillis / 2, TimeUnit.MILLISECONDS);
+        }
+
+        // Prepare frequently used code while the user is idle
+        warmup.start();
+    }
+
+    /**
+     * Creates builder of engine shared by all contexts. Engine options are collected from language adapters and
+     * from repl.engine.* system properties, e.g. -Drepl.engine.CompilerThreads=2 sets engine.CompilerThreads.
+     */
+    private Engine.Builder newEngineBuilder() {
+        final Engine.Builder builder = Engine.newBuilder().logHandler(logBuffer);
 
         for (LanguageAdapter language : languageImplementations.values()) {
-            System.out.println("Language: " + language.languageName());
-            evalInternal(language.initCode());
-            nextLanguage();
+            language.addEngineOptions(builder);
         }
-        System.out.println("Done.");
+
+        final String prefix = "repl.engine.";
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                // Compilation options such as thresholds are mostly experimental.
+                builder.allowExperimentalOptions(true)
+                        .option("engine." + name.substring(prefix.length()), System.getProperty(name));
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * @return context builder bound to given engine and terminal streams, with all language options applied
+     */
+    private Builder newContextBuilder(final Engine engine) {
+        final Builder builder = Context.newBuilder().engine(engine).in(term.in).out(term.out).err(term.err)
+                .allowAllAccess(true);
+
+        for (LanguageAdapter language : languageImplementations.values()) {
+            language.addContextOptions(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Creates context with bindings added and initialization code run for given language, or for all languages.
+     *
+     * @param language language name, or null for all languages
+     * @return new context
+     */
+    private Context createContext(final String language) {
+        final List<LanguageAdapter> adapters = new ArrayList<>();
+        for (String name : availableLanguages) {
+            if (language == null || language.equals(name)) {
+                adapters.add(languageImplementations.get(name));
+            }
+        }
+
+        final ContextCreationEvent contextEvent = ReplEvents.beginContextCreation(
+                language != null ? language : String.join(",", availableLanguages));
+        final Context context = newContextBuilder(engine).build();
+        ReplEvents.end(contextEvent);
+
+        for (LanguageAdapter adapter : adapters) {
+            adapter.putBindings(context, bindings);
+            final LanguageInitEvent initEvent = ReplEvents.beginLanguageInit(adapter.languageName());
+            context.eval(Source.newBuilder(adapter.languageName(), adapter.initCode(), "<internal>").internal(true)
+                    .buildLiteral());
+            ReplEvents.end(initEvent);
+        }
+        return context;
+    }
+
+    /**
+     * Starts or stops teeing terminal output to rotating transcript files.
+     *
+     * @param enable true to start
+     * @return message for the user
+     * @throws IOException transcript directory could not be created
+     */
+    private synchronized String setTranscript(final boolean enable) throws IOException {
+        if (transcript != null && !transcript.isRunning()) {
+            transcript = null; // stopped after a write failure, which was already reported
+        }
+        if (enable && transcript == null) {
+            // Output of an evaluation is tagged with the number it will have once finished.
+            transcript = new TranscriptWriter(AppFiles.dataDirectory("transcripts"), () -> evaluationCount + 1,
+                    term.err);
+            transcript.attach("out", term.out);
+            transcript.attach("err", term.err);
+            transcript.attach("log", term.log);
+        } else if (!enable && transcript != null) {
+            transcript.close(term.out, term.err, term.log);
+            transcript = null;
+            return "Transcript stopped.";
+        }
+        return transcript != null ? "Transcript is written to " + transcript.getFile() : "Transcript is off.";
+    }
+
+    /**
+     * Creates context for a worker thread, without initialization code. It only gets bindings that are safe to use
+     * from any thread, the others use the evaluation context or the terminal.
+     */
+    private Context newWorkerContext(final String language, final OutputStream out, final OutputStream err) {
+        final Context context = newContextBuilder(engine).in(InputStream.nullInputStream()).out(out).err(err).build();
+        final LanguageAdapter adapter = languageImplementations.get(language);
+        if (adapter == null) {
+            context.close();
+            throw new IllegalArgumentException("Language " + language + " is not available.");
+        }
+        adapter.putBindings(context, Map.of("handoff", handoff, "buffers", bindings.get("buffers")));
+        return context;
+    }
+
+    /**
+     * Runs independent scripts concurrently, each in its own context. Does not use the evaluation thread.
+     *
+     * @param tasks scripts to run
+     * @return future of results, in the order of tasks
+     */
+    public CompletableFuture<List<ParallelRunner.Result>> runParallel(final List<ParallelRunner.Task> tasks) {
+        return parallelRunner.run(tasks);
+    }
+
+    /**
+     * @return context of the running evaluation's language, created if it is not open. Has to be called on the
+     * evaluation thread.
+     */
+    private Context context() {
+        return contexts.get(language());
+    }
+
+    /**
+     * Language of the evaluation that is running. Commands keep the language they were submitted in, even if the
+     * user switches language before they run. Has to be called on the evaluation thread.
+     */
+    private String language() {
+        return taskLanguage != null ? taskLanguage : getLanguageName();
+    }
+
+    private LanguageAdapter adapter() {
+        return languageImplementations.get(language());
+    }
+
+    /**
+     * @param language language name
+     * @return context hosting given language, created if it is not open. Has to be called on the evaluation
+     * thread, e.g. from {@link #runOnEvaluationThread(Function)}.
+     */
+    public Context contextFor(final String language) {
+        return contexts.get(language);
+    }
+
+    /**
+     * Closes idle per-language contexts, or all but the current one if heap usage is above repl.contexts.pressure
+     * (fraction of maximum heap, 0.8 by default). Runs on the evaluation thread.
+     */
+    private void evictContexts() {
+        final Runtime runtime = Runtime.getRuntime();
+        final double pressure = Double.parseDouble(System.getProperty("repl.contexts.pressure", "0.8"));
+        final boolean underPressure = runtime.totalMemory() - runtime.freeMemory() > pressure * runtime.maxMemory();
+        released(underPressure ? contexts.trim(getLanguageName()) : contexts.evictIdle(getLanguageName()));
+    }
+
+    /**
+     * Closes all per-language contexts except the current one, e.g. when memory pressure is signalled.
+     */
+    public void trimContexts() {
+        evaluator.execute(() -> released(contexts.trim(getLanguageName())));
+    }
+
+    /**
+     * Drops caches that are rebuilt on demand, such as file sources and their parse results.
+     */
+    public void trimCaches() {
+        sourceCache.clear();
+    }
+
+    private void released(final int closed) {
+        if (closed > 0) {
+            // Values and parse results of closed contexts must not be used any more.
+            lastResult = null;
+            sourceCache.clear();
+            stringHeads.clear();
+        }
+    }
+
+    /**
+     * Leading characters of a string value, taken with current language's {@link LanguageAdapter#stringHead()}
+     * function so that long strings are not copied. Has to be called on the evaluation thread.
+     */
+    private String stringHead(final Value value, final int length) {
+        final String language = language();
+        final String code = adapter().stringHead();
+        if (code != null) {
+            try {
+                final Context context = context();
+                Map.Entry<Context, Value> head = stringHeads.get(language);
+                if (head == null || head.getKey() != context) {
+                    head = Map.entry(context, context.eval(Source.newBuilder(language, code, "<preview>")
+                            .internal(true).buildLiteral()));
+                    stringHeads.put(language, head);
+                }
+                return head.getValue().execute(value, length).asString();
+            } catch (PolyglotException e) {
+                // e.g. string of another language, copied as a whole
+            }
+        }
+        final String text = value.asString();
+        return text.length() > length ? text.substring(0, length) : text;
+    }
+
+    /**
+     * Evaluates input typed or pasted by the user. Languages that echo results themselves get it as interactive
+     * source. Others get it as a regular source, parsed once, since interactive sources may be limited to a single
+     * statement (e.g. GraalPython), and its result is echoed as a bounded preview, so huge results are never
+     * converted to text.
+     *
+     * Some languages only report incomplete input for interactive sources, so if the regular source does not
+     * parse, input is parsed as interactive source to tell whether more lines are needed.
+     *
+     * @param code input
+     * @return result of evaluation
+     * @throws PolyglotException evaluation failed, or input is incomplete
+     */
+    private Value evalPrompt(final String code) {
+        final String language = language();
+        final Context context = context();
+        final Source interactive = Source.newBuilder(language, code, "<shell>").interactive(true).buildLiteral();
+        if (adapter().echoesResults()) {
+            return context.eval(interactive);
+        }
+        final Value parsed;
+        try {
+            parsed = context.parse(Source.newBuilder(language, code, "<shell>").buildLiteral());
+        } catch (PolyglotException e) {
+            if (e.isSyntaxError() && !e.isIncompleteSource()) {
+                context.parse(interactive); // throws if input is incomplete
+            }
+            throw e;
+        }
+        final Value result = parsed.execute();
+        if (adapter().isStatementResult(result)) {
+            return context.asValue(null);
+        }
+        final String echo = inspector.echo(result);
+        if (echo != null) {
+            term.out.writeLine(echo);
+        }
+        return result;
     }
 
     public void nextLanguage() {
         languageIndex = (languageIndex + 1) % languageImplementations.size();
+        if (contexts.isPerLanguage()) {
+            final String language = getLanguageName();
+            if (contexts.takeEvicted(language) && Boolean.parseBoolean(System.getProperty("repl.contexts.notice",
+                    "true"))) {
+                term.out.writeLine("(" + language + " context was closed while idle, its state was dropped)");
+            }
+            evaluator.execute(() -> contexts.get(language)); // recreate in background, before it is needed
+        }
     }
 
     public void showPrompt() {
@@ -168,20 +583,30 @@ public class Interpreter {
     }
 
     public void readEvalPrint() {
+        readEvalPrint(null);
+    }
+
+    /**
+     * @return false if there was nothing to evaluate
+     */
+    private boolean readEvalPrint(final EvalEvent event) {
         String input;
         do {
             input = term.in.readLine();
         } while (!term.in.isEmpty() && (input.isEmpty() || input.charAt(0) == '#'));
 
         if (input.isEmpty()) {
-            return;
+            return false;
         }
 
         final StringBuilder sb = new StringBuilder(input).append('\n');
         while (true) { // processing subsequent lines while input is incomplete
+            if (event != null) {
+                event.sourceLength = sb.length();
+            }
             try {
-                polyglot.eval(Source.newBuilder(getLanguageName(), sb.toString(), "<shell>").interactive(true)
-                        .buildLiteral());
+                lastResult = evalPrompt(sb.toString());
+                warmup.record(language(), sb, adapter().echoesResults());
             } catch (final PolyglotException e) {
                 if (e.isIncompleteSource()) {
                     // read more input until we get an empty line
@@ -194,7 +619,7 @@ public class Interpreter {
                     }
                     if (additionalInput == null) {
                         term.err.write("EOF reached.");
-                        return;
+                        return true;
                     }
                     // The only continuation in the while loop
                     continue;
@@ -205,18 +630,216 @@ public class Interpreter {
             break;
         }
         term.in.flush();
+        return true;
+    }
+
+    /**
+     * Replays recorded session through the prompt, after any evaluation that is already running or queued. Each
+     * line is read as if it was typed, so lines following a command answer its input prompts. Prints latency and
+     * throughput when the script is exhausted.
+     *
+     * @param script       session, commands and answers to input prompts one per line
+     * @param pacingMillis delay before each line, 0 for full speed
+     * @return future statistics of the replay
+     */
+    public CompletableFuture<SessionReplay> replay(final Reader script, final long pacingMillis) {
+        return CompletableFuture.supplyAsync(() -> {
+            final SessionReplay replay = new SessionReplay();
+            term.in.flush();
+            term.in.attach(new BufferedReader(script), pacingMillis, term.out::write);
+            blocked = true;
+            warmup.pause();
+            try {
+                while (term.in.hasScript()) {
+                    final long start = System.nanoTime();
+                    if (readEvalPrint(null)) {
+                        replay.record(System.nanoTime() - start);
+                        evaluationCount++;
+                        showPrompt();
+                    }
+                }
+            } finally {
+                term.in.detach();
+                warmup.resume();
+                blocked = false;
+            }
+            replay.finish();
+            term.out.write(System.lineSeparator() + replay.report());
+            showPrompt();
+            return replay;
+        }, evaluator);
+    }
+
+    public CompletableFuture<SessionReplay> replay(final Path script, final long pacingMillis) throws IOException {
+        return replay(Files.newBufferedReader(script), pacingMillis);
     }
 
     public void evalInternal(final String code) {
-        polyglot.eval(Source.newBuilder(getLanguageName(), code, "<internal>").internal(true).buildLiteral());
+        context().eval(Source.newBuilder(language(), code, "<internal>").internal(true).buildLiteral());
     }
 
     public void eval() {
-        new Thread(new EvalTask()).start();
+        evaluator.execute(new EvalTask());
+    }
+
+    /**
+     * Evaluates code on the evaluation thread, after any evaluation that is already running or queued.
+     *
+     * @param code code to evaluate
+     * @return future result of evaluation
+     */
+    public CompletableFuture<Value> evalCode(final String code) {
+        return submit(new EvalTask(code, false));
+    }
+
+    /**
+     * Evaluates multi-line block (e.g. pasted code) as a single source, parsed once. Its result is echoed the same
+     * way as results of prompt input.
+     *
+     * @param code block of code
+     * @return future result of evaluation
+     */
+    public CompletableFuture<Value> evalBlock(final String code) {
+        return submit(new EvalTask(terminate(code), true));
+    }
+
+    /**
+     * Evaluates code read from given reader. Reader is consumed on the evaluation thread, so it has to be backed
+     * by immutable data.
+     *
+     * @param reader code reader
+     * @param length number of characters, used for diagnostics
+     * @return future result of evaluation
+     */
+    public CompletableFuture<Value> evalCode(final Reader reader, final int length) {
+        return submit(new EvalTask(reader, length));
+    }
+
+    /**
+     * Queues command typed while an evaluation is running. Command is echoed with its queue number and evaluated
+     * like prompt input once all previous evaluations finish, unless it is cancelled first.
+     *
+     * @param code command
+     * @return future result of evaluation
+     */
+    public CompletableFuture<Value> enqueue(final String code) {
+        final EvalTask task = new EvalTask(terminate(code), true);
+        synchronized (pending) {
+            task.queueId = nextCommandId++;
+            pending.put(task.queueId, task);
+        }
+        term.out.writeLine("[queued #" + task.queueId + "] " + code.replace("\n", System.lineSeparator() + "... "));
+        return submit(task);
+    }
+
+    /**
+     * @return true if there are queued commands that did not start yet
+     */
+    public boolean hasPending() {
+        synchronized (pending) {
+            return !pending.isEmpty();
+        }
+    }
+
+    /**
+     * @return queued commands that did not start yet, keyed by queue number
+     */
+    public Map<Long, String> getPending() {
+        final Map<Long, String> commands = new LinkedHashMap<>();
+        synchronized (pending) {
+            pending.forEach((id, task) -> commands.put(id, task.code));
+        }
+        return commands;
+    }
+
+    /**
+     * Cancels queued command that did not start yet.
+     *
+     * @param id queue number
+     * @return false if there is no such pending command, e.g. because it already started
+     */
+    public boolean cancelPending(final long id) {
+        final EvalTask task;
+        synchronized (pending) {
+            task = pending.remove(id);
+        }
+        if (task == null) {
+            return false;
+        }
+        task.cancel(false); // executor skips cancelled tasks
+        task.result.cancel(false);
+        return true;
+    }
+
+    private CompletableFuture<Value> submit(final EvalTask task) {
+        evaluator.execute(task);
+        return task.result;
     }
 
-    public void evalCode(final String code) {
-        new Thread(new EvalTask(code)).start();
+    private static Path pathArgument(final Value[] args) {
+        return Paths.get(stringArgument(args, "file path"));
+    }
+
+    private static String stringArgument(final Value[] args, final String name) {
+        if (args.length == 0 || !args[0].isString()) {
+            throw new IllegalArgumentException("Expected " + name + " as the first argument.");
+        }
+        return args[0].asString();
+    }
+
+    private static String terminate(final String code) {
+        // Trailing newline terminates last compound statement, as an empty line would in the prompt.
+        return code.endsWith("\n") ? code : code + "\n";
+    }
+
+    /**
+     * Runs file in current context. Has to be called on the evaluation thread. Language is detected from file
+     * name, falling back to current language. Source and parse result are cached until the file changes.
+     *
+     * @param path file path
+     * @return result of execution
+     * @throws IOException file could not be read
+     */
+    public Value runFile(final Path path) throws IOException {
+        String language = Source.findLanguage(path.toFile());
+        if (language == null || !languageImplementations.containsKey(language)) {
+            language = language();
+        }
+        final Context context = context();
+        return sourceCache.parse(contexts.idOf(language()), context, path, language).execute();
+    }
+
+    private void rerunFile(final Path path) {
+        submit(new EvalTask(path));
+    }
+
+    /**
+     * Runs evaluation on the evaluation thread the same way prompt and editor evaluations run: interpreter is
+     * blocked, warm-up is paused and events are recorded until it is done, then the prompt is shown.
+     *
+     * @param body evaluates code, e.g. in contexts returned by {@link #contextFor(String)}, and returns result
+     * @return future result of evaluation
+     */
+    public CompletableFuture<Value> evaluate(final Supplier<Value> body) {
+        return submit(new EvalTask(body));
+    }
+
+    /**
+     * Runs given function on the evaluation thread, after any evaluation that is already running or queued.
+     *
+     * @param function function that receives the polyglot context
+     * @param <T>      result type
+     * @return future result
+     */
+    public <T> CompletableFuture<T> runOnEvaluationThread(final Function<Context, T> function) {
+        return CompletableFuture.supplyAsync(() -> function.apply(context()), evaluator);
+    }
+
+    /**
+     * @return number of finished evaluations, used to invalidate data derived from context state
+     */
+    public long getEvaluationCount() {
+        return evaluationCount;
     }
 
     public Boolean isBlocked() {
@@ -230,38 +853,117 @@ public class Interpreter {
     protected class EvalTask extends Task<Object> {
 
         boolean interpreter;
+        boolean interactive;
         String code;
+        Reader reader;
+        Path file;
+        Supplier<Value> body;
+        int length;
+        long queueId = -1;
+        final String language = getLanguageName();
+        final CompletableFuture<Value> result = new CompletableFuture<>();
 
         EvalTask() {
             this.interpreter = true;
         }
 
-        EvalTask(final String code) {
+        EvalTask(final String code, final boolean interactive) {
             this.interpreter = false;
+            this.interactive = interactive;
             this.code = code;
+            this.length = code.length();
+        }
+
+        EvalTask(final Reader reader, final int length) {
+            this.interpreter = false;
+            this.reader = reader;
+            this.length = length;
+        }
+
+        EvalTask(final Path file) {
+            this.interpreter = false;
+            this.file = file;
+        }
+
+        EvalTask(final Supplier<Value> body) {
+            this.interpreter = false;
+            this.body = body;
         }
 
         @Override
         protected Object call() throws IOException {
+            if (queueId >= 0) {
+                // FutureTask is cancellable until call() returns, so the queue entry decides who won
+                synchronized (pending) {
+                    if (pending.remove(queueId) == null || isCancelled()) {
+                        return null;
+                    }
+                }
+                term.out.writeLine(code.trim().replace("\n", System.lineSeparator() + "... "));
+            }
             blocked = true;
+            if (!interpreter) { // prompt input is read in the language that is current at the time
+                taskLanguage = language;
+            }
+            warmup.pause();
+            final EvalEvent event = ReplEvents.beginEval(language(), interpreter || interactive);
+            final MemoryDiagnostics.Snapshot snapshot = memory.begin();
+            Throwable failure = null;
             try {
                 if (interpreter) {
-                    readEvalPrint();
+                    readEvalPrint(event);
+                } else if (body != null) {
+                    lastResult = body.get();
+                } else if (file != null) {
+                    term.out.writeLine(System.lineSeparator() + "Running " + file);
+                    lastResult = runFile(file);
+                } else if (interactive) {
+                    if (event != null) {
+                        event.sourceLength = length;
+                    }
+                    lastResult = evalPrompt(code);
+                    warmup.record(language, code, adapter().echoesResults());
                 } else {
-                    final Source source = Source.newBuilder(getLanguageName(), code, "<shell>").build();
-                    polyglot.eval(source);
+                    if (event != null) {
+                        event.sourceLength = length;
+                    }
+                    final Source source = reader != null
+                            ? Source.newBuilder(language, reader, "<shell>").build()
+                            : Source.newBuilder(language, code, "<shell>").build();
+                    lastResult = context().eval(source);
+                    if (reader == null) { // editor documents are streamed, they are not worth copying
+                        warmup.record(language, source.getCharacters(), false);
+                    }
                 }
 
             } catch (final PolyglotException e) {
                 term.err.write(getPolyglotException(e));
+                failure = e;
+            } catch (final Throwable e) {
+                term.err.write(e.toString());
+                failure = e;
+            } finally {
+                memory.end(snapshot, event);
+                ReplEvents.end(event);
+                taskLanguage = null;
+                warmup.resume();
+                evaluationCount++;
+                blocked = false;
+                showPrompt();
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(lastResult);
+                }
             }
-            blocked = false;
-            showPrompt();
             return null;
         }
     }
 
     public String getPolyglotException(PolyglotException e) {
+        if (e.getSourceLocation() == null) { // e.g. exceptions thrown by host functions
+            return e.getLocalizedMessage();
+        }
         return e.getLocalizedMessage() + "\n\tat \"" + e.getSourceLocation().getCharacters() +
                 "\" (" + e.getSourceLocation().getStartLine() + ":" + e.getSourceLocation().getStartColumn() + ")";
     }
@@ -271,6 +973,35 @@ public class Interpreter {
         return getLanguageName();
     }
 
+    /**
+     * @return result of last evaluation, or null
+     */
+    public Value getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * @return context of current language, or null if it is not open yet
+     */
+    public Context getContext() {
+        return contexts.peek(getLanguageName());
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public LanguageAdapter getLanguageAdapter() {
+        return languageImplementations.get(getLanguageName());
+    }
+
+    /**
+     * @return names of available languages, in the order they are switched through
+     */
+    public List<String> getAvailableLanguages() {
+        return Collections.unmodifiableList(availableLanguages);
+    }
+
     public String getLanguageName() {
         return availableLanguages.get(languageIndex);
     }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.events.ReplEvents;
+import com.oracle.labs.repl.events.ReplEvents.ResumeEvent;
+import javafx.application.Platform;
+
+/**
+ * Releases memory while the app is in background, where mobile systems kill the largest apps first.
+ *
+ * On pause terminal rendering stops, histories of other languages are closed, stream buffers shrink, source,
+ * parse and completion caches are dropped and, with per-language contexts, all contexts but the current one are
+ * closed (unless -Drepl.lifecycle.closeContexts=false). Everything is restored lazily, when it is next used. On
+ * resume the time until the terminal is interactive again is measured and reported as a JFR event.
+ */
+public class LifecycleMemoryManager {
+
+    private final TerminalComponent term;
+    private final Interpreter interpreter;
+    private final CompletionService completion;
+    private final boolean closeContexts = Boolean.parseBoolean(
+            System.getProperty("repl.lifecycle.closeContexts", "true"));
+
+    private volatile boolean trimmed;
+    private volatile long lastResumeNanos = -1;
+
+    public LifecycleMemoryManager(final TerminalComponent term, final Interpreter interpreter,
+                                  final CompletionService completion) {
+        this.term = term;
+        this.interpreter = interpreter;
+        this.completion = completion;
+    }
+
+    public void onPause() {
+        term.setPaused(true);
+        term.trimMemory();
+        completion.invalidate();
+        interpreter.trimCaches();
+        if (closeContexts) {
+            interpreter.trimContexts();
+        }
+        trimmed = true;
+    }
+
+    public void onResume() {
+        final long start = System.nanoTime();
+        final ResumeEvent event = ReplEvents.beginResume();
+        term.setPaused(false);
+        // Terminal is interactive once the FX thread gets to process events queued after the resume.
+        Platform.runLater(() -> {
+            lastResumeNanos = System.nanoTime() - start;
+            if (event != null) {
+                event.trimmed = trimmed;
+            }
+            ReplEvents.end(event);
+            trimmed = false;
+        });
+    }
+
+    /**
+     * @return time to interactive after last resume in nanoseconds, or -1 if the app was not resumed yet
+     */
+    public long getLastResumeNanos() {
+        return lastResumeNanos;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.streams.TerminalOutputStream;
+
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler for engine and language log records.
+ *
+ * Records are filtered by level and logger name before anything is formatted, and kept in a bounded ring of
+ * recent records. Only records at or above the terminal level are formatted and shown in the terminal, the rest
+ * can be queried later.
+ *
+ * Configured with system properties:
+ * <ul>
+ * <li>repl.log.level - lowest level that is recorded (default INFO)</li>
+ * <li>repl.log.terminalLevel - lowest level shown in the terminal (default WARNING)</li>
+ * <li>repl.log.loggers - comma separated logger name prefixes to record, all loggers if not set</li>
+ * <li>repl.log.capacity - number of records kept (default 1000)</li>
+ * </ul>
+ */
+public class LogBuffer extends Handler {
+
+    private final TerminalOutputStream terminal;
+    private final Level terminalLevel;
+    private final String[] loggers;
+
+    private final LogRecord[] ring;
+    private int head; // slot of the next record
+    private int count;
+
+    public LogBuffer(final TerminalOutputStream terminal) {
+        this.terminal = terminal;
+        setLevel(Level.parse(System.getProperty("repl.log.level", "INFO")));
+        this.terminalLevel = Level.parse(System.getProperty("repl.log.terminalLevel", "WARNING"));
+        final String names = System.getProperty("repl.log.loggers", "");
+        this.loggers = names.isBlank() ? new String[0] : names.split("\\s*,\\s*");
+        this.ring = new LogRecord[Math.max(1, Integer.getInteger("repl.log.capacity", 1000))];
+    }
+
+    @Override
+    public boolean isLoggable(final LogRecord record) {
+        if (record == null || record.getLevel().intValue() < getLevel().intValue()) {
+            return false;
+        }
+        if (loggers.length == 0) {
+            return true;
+        }
+        final String name = record.getLoggerName() != null ? record.getLoggerName() : "";
+        for (String logger : loggers) {
+            if (name.startsWith(logger)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void publish(final LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        synchronized (ring) {
+            ring[head] = record;
+            head = (head + 1) % ring.length;
+            count = Math.min(count + 1, ring.length);
+        }
+        if (record.getLevel().intValue() >= terminalLevel.intValue()) {
+            terminal.writeLine(format(record));
+        }
+    }
+
+    /**
+     * Returns recent records, oldest first.
+     *
+     * @param minimum lowest level to return
+     * @param text    text that logger name or message has to contain, or null
+     * @param limit   maximum number of records
+     * @return formatted records
+     */
+    public List<String> query(final Level minimum, final String text, final int limit) {
+        final List<LogRecord> matches = new ArrayList<>();
+        synchronized (ring) {
+            for (int i = 1; i <= count && matches.size() < limit; i++) {
+                final LogRecord record = ring[Math.floorMod(head - i, ring.length)];
+                if (record.getLevel().intValue() >= minimum.intValue() && (text == null || contains(record, text))) {
+                    matches.add(record);
+                }
+            }
+        }
+        final List<String> lines = new ArrayList<>(matches.size());
+        for (int i = matches.size() - 1; i >= 0; i--) {
+            lines.add(format(matches.get(i)));
+        }
+        return lines;
+    }
+
+    private static boolean contains(final LogRecord record, final String text) {
+        return (record.getLoggerName() != null && record.getLoggerName().contains(text))
+                || (record.getMessage() != null && record.getMessage().contains(text));
+    }
+
+    private static String format(final LogRecord record) {
+        String message = record.getMessage();
+        final Object[] parameters = record.getParameters();
+        if (message != null && parameters != null && parameters.length > 0) {
+            try {
+                message = MessageFormat.format(message, parameters);
+            } catch (IllegalArgumentException e) {
+                // keep unformatted message
+            }
+        }
+        return Instant.ofEpochMilli(record.getMillis()) + " " + record.getLevel() + " [" + record.getLoggerName()
+                + "] " + message;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
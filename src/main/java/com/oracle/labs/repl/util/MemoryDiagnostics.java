@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.events.ReplEvents.EvalEvent;
+import com.oracle.labs.repl.streams.TerminalOutputStream;
+import com.oracle.truffle.tools.profiler.MemoryTracer;
+import com.oracle.truffle.tools.profiler.ProfilerNode;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Memory diagnostics of evaluations.
+ *
+ * When enabled, every evaluation reports host heap usage before and after it and the number of bytes allocated
+ * by the evaluation thread. Values are also stored in the evaluation's flight recorder event. Guest allocation
+ * sites are traced on demand with Truffle's memory tracer, which, like the profiler, is attached to the engine of
+ * the session context and only collects while traced code runs.
+ */
+public class MemoryDiagnostics {
+
+    // Bytes allocated by the current thread, or -1 if not supported
+    private static final LongSupplier ALLOCATED = allocationCounter();
+
+    // Profiler API is an optional dependency, only touched through Tracing when it is present
+    private static final boolean TRACER = Profiler.isAvailable("com.oracle.truffle.tools.profiler.MemoryTracer");
+    private static final int TABLE_ROWS = 20;
+
+    private final TerminalOutputStream out;
+    private volatile boolean enabled;
+
+    /**
+     * Memory state at the start of an evaluation.
+     */
+    public static final class Snapshot {
+        final long heap;
+        final long allocated;
+
+        Snapshot(long heap, long allocated) {
+            this.heap = heap;
+            this.allocated = allocated;
+        }
+    }
+
+    /**
+     * Allocations of a single site.
+     */
+    private static final class Site {
+        final String name;
+        long count;
+        long bytes;
+
+        Site(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * @param out stream summaries are written to
+     */
+    public MemoryDiagnostics(final TerminalOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Looks up per-thread allocation counter. com.sun.management is only touched through {@link ThreadAllocation},
+     * which is not loaded when the class is missing.
+     */
+    private static LongSupplier allocationCounter() {
+        try {
+            Class.forName("com.sun.management.ThreadMXBean");
+            if (ThreadAllocation.enable()) {
+                return ThreadAllocation::current;
+            }
+        } catch (Throwable t) {
+            // management is not available on this platform
+        }
+        return () -> -1;
+    }
+
+    private static final class ThreadAllocation {
+        private static com.sun.management.ThreadMXBean bean;
+
+        static boolean enable() {
+            final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+                bean = (com.sun.management.ThreadMXBean) threads;
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return true;
+            }
+            return false;
+        }
+
+        static long current() {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Called on the evaluation thread before evaluation.
+     *
+     * @return snapshot, or null if diagnostics are disabled
+     */
+    public Snapshot begin() {
+        if (!enabled) {
+            return null;
+        }
+        return new Snapshot(usedHeap(), allocatedBytes());
+    }
+
+    /**
+     * Called on the evaluation thread after evaluation. Prints summary and stores it in given event.
+     *
+     * @param snapshot snapshot returned by {@link #begin()}, ignored if null
+     * @param event    evaluation event, may be null
+     */
+    public void end(final Snapshot snapshot, final EvalEvent event) {
+        if (snapshot == null) {
+            return;
+        }
+        final long heap = usedHeap();
+        final long allocated = snapshot.allocated < 0 ? -1 : allocatedBytes() - snapshot.allocated;
+
+        final StringBuilder sb = new StringBuilder("Memory: heap ").append(format(snapshot.heap)).append(" -> ")
+                .append(format(heap)).append(" (").append(heap >= snapshot.heap ? "+" : "-")
+                .append(format(Math.abs(heap - snapshot.heap))).append(')');
+        if (allocated >= 0) {
+            sb.append(", allocated ").append(format(allocated));
+        }
+        out.writeLine(System.lineSeparator() + sb);
+
+        if (event != null) {
+            event.heapBefore = snapshot.heap;
+            event.heapAfter = heap;
+            event.allocated = allocated;
+        }
+    }
+
+    /**
+     * Evaluates code in given context with Truffle's memory tracer collecting and prints allocation sites and
+     * allocated types. Has to be called on the thread that owns the context.
+     *
+     * @param context  session context
+     * @param language language of the code
+     * @param code     code to trace
+     */
+    public void trace(final Context context, final String language, final String code) {
+        final Source source = Source.newBuilder(language, code, "<traceMemory>").buildLiteral();
+        final Map<String, Site> sites = new HashMap<>();
+        final Map<String, Site> types = new HashMap<>();
+        final Snapshot snapshot = new Snapshot(usedHeap(), allocatedBytes());
+        boolean traced = TRACER;
+        PolyglotException failure = null;
+        try {
+            traced = traced && Tracing.trace(context.getEngine(), () -> context.eval(source), sites, types);
+        } catch (PolyglotException e) {
+            failure = e;
+        }
+        if (!traced) {
+            out.writeLine("Memory tracer is not available, org.graalvm.tools:profiler has to be on the class path.");
+            return;
+        }
+        printTable("Allocation site", sites);
+        printTable("Type", types);
+        end(snapshot, null);
+        if (failure != null) {
+            out.writeLine("Evaluation failed: " + failure.getMessage());
+        }
+    }
+
+    private void printTable(final String title, final Map<String, Site> sites) {
+        final List<Site> sorted = new ArrayList<>(sites.values());
+        sorted.sort((a, b) -> Long.compare(b.count, a.count));
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%10s %10s  %s%n", "Count", "Size", title));
+        for (Site site : sorted.subList(0, Math.min(TABLE_ROWS, sorted.size()))) {
+            sb.append(String.format("%10d %10s  %s%n", site.count, site.bytes > 0 ? format(site.bytes) : "-",
+                    site.name));
+        }
+        if (sorted.isEmpty()) {
+            sb.append("No allocations were reported.").append(System.lineSeparator());
+        } else if (sorted.size() > TABLE_ROWS) {
+            sb.append("... ").append(sorted.size() - TABLE_ROWS).append(" more").append(System.lineSeparator());
+        }
+        out.write(sb.toString());
+    }
+
+    /**
+     * Collects allocations through the profiler API, not loaded when the API is missing.
+     */
+    private static final class Tracing {
+
+        /**
+         * @return false if the tracer is not installed in the engine
+         */
+        static boolean trace(final Engine engine, final Runnable body, final Map<String, Site> sites,
+                             final Map<String, Site> types) {
+            final MemoryTracer tracer = MemoryTracer.find(engine);
+            if (tracer == null) {
+                return false;
+            }
+            tracer.clearData();
+            tracer.setCollecting(true);
+            try {
+                body.run();
+            } finally {
+                tracer.setCollecting(false);
+                for (ProfilerNode<MemoryTracer.Payload> root : tracer.getRootNodes()) {
+                    collect(root, sites, types);
+                }
+                tracer.clearData();
+            }
+            return true;
+        }
+
+        private static void collect(final ProfilerNode<MemoryTracer.Payload> node, final Map<String, Site> sites,
+                                    final Map<String, Site> types) {
+            final List<MemoryTracer.AllocationEventInfo> events = node.getPayload().getEvents();
+            if (!events.isEmpty()) {
+                final String name = node.getRootName() + " (" + Profiler.location(node.getSourceSection()) + ")";
+                final Site site = sites.computeIfAbsent(name, Site::new);
+                for (MemoryTracer.AllocationEventInfo event : events) {
+                    final Site type = types.computeIfAbsent(event.getMetaObjectString(), Site::new);
+                    final long bytes = Math.max(0, event.getAllocated());
+                    site.count++;
+                    site.bytes += bytes;
+                    type.count++;
+                    type.bytes += bytes;
+                }
+            }
+            for (ProfilerNode<MemoryTracer.Payload> child : node.getChildren()) {
+                collect(child, sites, types);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATED.getAsLong();
+    }
+
+    private static String format(final long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
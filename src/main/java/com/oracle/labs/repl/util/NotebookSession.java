@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.editor.NotebookCells.Cell;
+import com.oracle.labs.repl.streams.TerminalOutputStream;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental execution of notebook cells.
+ *
+ * Cells are identified by their language and code. A cell is executed again only if it was not executed before,
+ * if its context was replaced since, or if it reads a name defined by a cell executed earlier in the same run.
+ * Other cells are clean, and their captured output is shown again without running them.
+ *
+ * Names defined by a cell are found from assignments and declarations in its code and from bindings that appear
+ * while it runs. Names read by a cell are all identifiers in its code. This over-approximates reads, so a cell is
+ * sometimes executed when not needed, but objects mutated through method calls are not tracked.
+ */
+public class NotebookSession {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("(?<![\\w$.])[A-Za-z_$][\\w$]*");
+    private static final Pattern DECLARATION = Pattern.compile(
+            "^\\s*(?:export\\s+)?(?:let|const|var|def|class|function\\*?|async\\s+function)\\s+([A-Za-z_$][\\w$]*)",
+            Pattern.MULTILINE);
+    private static final Pattern ASSIGNMENT = Pattern.compile(
+            "^\\s*([A-Za-z_$][\\w$]*(?:\\s*,\\s*[A-Za-z_$][\\w$]*)*)\\s*(?:<<-|<-|[-+*/%|&^]?=(?!=))",
+            Pattern.MULTILINE);
+
+    private final Interpreter interpreter;
+    private final TerminalOutputStream out;
+    private final TerminalOutputStream err;
+
+    // Accessed on the evaluation thread only
+    private Map<String, CellState> states = new HashMap<>();
+
+    private static final class CellState {
+        final Set<String> defines;
+        final String output;
+        final String errors;
+        final WeakReference<Context> context;
+
+        CellState(Set<String> defines, String output, String errors, Context context) {
+            this.defines = defines;
+            this.output = output;
+            this.errors = errors;
+            this.context = new WeakReference<>(context);
+        }
+    }
+
+    public NotebookSession(final Interpreter interpreter, final TerminalOutputStream out,
+                           final TerminalOutputStream err) {
+        this.interpreter = interpreter;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Runs dirty cells and their dependents and replays output of clean ones. The run is a single evaluation of
+     * the interpreter, so the prompt stays blocked until it is done.
+     *
+     * @param cells           cells in document order
+     * @param defaultLanguage language of cells that do not specify one
+     * @return future completed when run is done
+     */
+    public CompletableFuture<Void> run(final List<Cell> cells, final String defaultLanguage) {
+        return interpreter.evaluate(() -> runCells(cells, defaultLanguage)).thenAccept(result -> {
+        });
+    }
+
+    /**
+     * Runs all cells concurrently, each in a fresh context, and prints their results in document order. Cells must
+     * be independent; they can exchange values only through the handoff binding.
+     *
+     * @param cells           cells in document order
+     * @param defaultLanguage language of cells that do not specify one
+     * @return future completed when all cells are done
+     */
+    public CompletableFuture<Void> runParallel(final List<Cell> cells, final String defaultLanguage) {
+        final List<ParallelRunner.Task> tasks = new ArrayList<>();
+        for (Cell cell : cells) {
+            tasks.add(new ParallelRunner.Task(cell.language != null ? cell.language : defaultLanguage, cell.code,
+                    "<cell " + (cell.index + 1) + ">"));
+        }
+        out.writeLine("Running " + tasks.size() + " cells in parallel...");
+        return interpreter.runParallel(tasks).thenAccept(results -> {
+            out.write(ParallelRunner.format(results));
+            interpreter.showPrompt();
+        });
+    }
+
+    /**
+     * Forgets all cached cell state, so the next run executes every cell.
+     */
+    public CompletableFuture<Void> reset() {
+        return interpreter.runOnEvaluationThread(ignored -> {
+            states = new HashMap<>();
+            return null;
+        });
+    }
+
+    /**
+     * @return result of the last executed cell, or null
+     */
+    private Value runCells(final List<Cell> cells, final String defaultLanguage) {
+        final Map<String, CellState> next = new HashMap<>();
+        Value last = null;
+        final Set<String> changed = new HashSet<>();
+        int executed = 0;
+        boolean stopped = false;
+
+        for (Cell cell : cells) {
+            final String language = cell.language != null ? cell.language : defaultLanguage;
+            final String key = language + '\0' + cell.code;
+            final String header = "[" + (cell.index + 1) + "] " + language;
+
+            if (!interpreter.getAvailableLanguages().contains(language)) {
+                err.write(header + ": language is not available");
+                stopped = true;
+                break;
+            }
+            final Context context = interpreter.contextFor(language);
+
+            final CellState state = states.get(key);
+            final boolean dirty = state == null || state.context.get() != context
+                    || !Collections.disjoint(identifiers(cell.code), changed);
+            if (!dirty) {
+                out.writeLine(header + " (cached)");
+                out.write(state.output);
+                err.write(state.errors);
+                next.put(key, state);
+                continue;
+            }
+
+            out.writeLine(header);
+            final Set<String> before = memberKeys(context, language);
+            out.startCapture();
+            err.startCapture();
+            boolean failed = false;
+            try {
+                final Value result = context.eval(Source.newBuilder(language, cell.code,
+                        "<cell " + (cell.index + 1) + ">").buildLiteral());
+                if (!result.isNull()) {
+                    out.writeLine(result.toString());
+                }
+                last = result;
+            } catch (PolyglotException e) {
+                err.write(interpreter.getPolyglotException(e));
+                failed = true;
+            }
+            final String output = out.stopCapture();
+            final String errors = err.stopCapture();
+            executed++;
+
+            if (failed) {
+                // Failed cell and the ones after it stay dirty.
+                out.writeLine("Stopped at cell " + (cell.index + 1) + ".");
+                stopped = true;
+                break;
+            }
+
+            final Set<String> defines = declarations(cell.code);
+            final Set<String> after = memberKeys(context, language);
+            after.removeAll(before);
+            defines.addAll(after);
+            changed.addAll(defines);
+            next.put(key, new CellState(defines, output, errors, context));
+        }
+
+        if (stopped) {
+            // Cells after the failure were not visited, keep their state for the next run.
+            for (Map.Entry<String, CellState> entry : states.entrySet()) {
+                next.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        states = next;
+        out.writeLine(executed + " of " + cells.size() + " cells executed.");
+        return last;
+    }
+
+    private static Set<String> memberKeys(final Context context, final String language) {
+        try {
+            return new HashSet<>(context.getBindings(language).getMemberKeys());
+        } catch (PolyglotException | UnsupportedOperationException e) {
+            return new HashSet<>();
+        }
+    }
+
+    private static Set<String> identifiers(final String code) {
+        final Set<String> names = new HashSet<>();
+        final Matcher matcher = IDENTIFIER.matcher(code);
+        while (matcher.find()) {
+            names.add(matcher.group());
+        }
+        return names;
+    }
+
+    private static Set<String> declarations(final String code) {
+        final Set<String> names = new HashSet<>();
+        Matcher matcher = DECLARATION.matcher(code);
+        while (matcher.find()) {
+            names.add(matcher.group(1));
+        }
+        matcher = ASSIGNMENT.matcher(code);
+        while (matcher.find()) {
+            for (String name : matcher.group(1).split(",")) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent scripts concurrently, each in its own context on the shared engine.
+ *
+ * Polyglot contexts are single-threaded, so parallelism comes from using one context per script. Number of
+ * worker threads is bounded by the number of cores (or repl.parallel.threads). Every script gets its own output
+ * buffers, and results are gathered in submission order. Results are converted to host data, so they stay usable
+ * after the script's context is closed, and scripts can exchange values through the handoff binding.
+ */
+public class ParallelRunner {
+
+    /**
+     * Creates context for given language that writes to given streams.
+     */
+    public interface ContextFactory {
+        Context create(String language, OutputStream out, OutputStream err);
+    }
+
+    public static final class Task {
+        final String language;
+        final String code;
+        final String name;
+
+        public Task(String language, String code, String name) {
+            this.language = language;
+            this.code = code;
+            this.name = name;
+        }
+    }
+
+    public static final class Result {
+        public final String name;
+        public final String language;
+        public final String output;
+        public final String errors;
+        public final Object value; // host data, see Handoff.toHost
+        public final boolean failed;
+        public final long nanos;
+
+        Result(Task task, String output, String errors, Object value, boolean failed, long nanos) {
+            this.name = task.name;
+            this.language = task.language;
+            this.output = output;
+            this.errors = errors;
+            this.value = value;
+            this.failed = failed;
+            this.nanos = nanos;
+        }
+    }
+
+    private final ContextFactory factory;
+    private final ExecutorService workers;
+
+    public ParallelRunner(final ContextFactory factory) {
+        this.factory = factory;
+        final int threads = Integer.getInteger("repl.parallel.threads", Runtime.getRuntime().availableProcessors());
+        final AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            final Thread thread = new Thread(r, "parallel-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts given tasks.
+     *
+     * @param tasks tasks to run
+     * @return future of results, in the order of tasks
+     */
+    public CompletableFuture<List<Result>> run(final List<Task> tasks) {
+        final List<CompletableFuture<Result>> futures = new ArrayList<>();
+        for (Task task : tasks) {
+            futures.add(CompletableFuture.supplyAsync(() -> execute(task), workers));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            final List<Result> results = new ArrayList<>();
+            for (CompletableFuture<Result> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Formats results as separate sections, in order, with output, errors and result of each script.
+     *
+     * @param results results
+     * @return text for the terminal
+     */
+    public static String format(final List<Result> results) {
+        final StringBuilder sb = new StringBuilder();
+        for (Result result : results) {
+            sb.append(String.format("--- %s (%s, %.1f ms)%s ---%n", result.name, result.language, result.nanos / 1e6,
+                    result.failed ? " failed" : ""));
+            sb.append(result.output);
+            if (!result.errors.isEmpty()) {
+                sb.append(result.errors).append(System.lineSeparator());
+            }
+            if (!result.failed && result.value != null) {
+                sb.append(result.value).append(System.lineSeparator());
+            }
+        }
+        return sb.toString();
+    }
+
+    private Result execute(final Task task) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        final long start = System.nanoTime();
+        Object value = null;
+        boolean failed = false;
+        try (Context context = factory.create(task.language, out, err)) {
+            final Value result = context.eval(Source.newBuilder(task.language, task.code, task.name).buildLiteral());
+            value = Handoff.toHost(result);
+        } catch (PolyglotException e) {
+            err.writeBytes(String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            failed = true;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            err.writeBytes(String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            failed = true;
+        }
+        return new Result(task, out.toString(StandardCharsets.UTF_8), err.toString(StandardCharsets.UTF_8), value,
+                failed, System.nanoTime() - start);
+    }
+}
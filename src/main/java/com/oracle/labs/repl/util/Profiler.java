@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.streams.TerminalOutputStream;
+import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.tools.profiler.CPUSampler;
+import com.oracle.truffle.tools.profiler.CPUSamplerData;
+import com.oracle.truffle.tools.profiler.ProfilerNode;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs code with Truffle's CPU sampler and renders the result as a per-function table and as collapsed stacks
+ * (one "frame;frame;frame count" line per stack, as used by flame graph tools).
+ *
+ * The sampler is attached to the engine of the session context and only collects while profiled code runs, so the
+ * code sees session state and the engine does not pay for sampling otherwise. Sampling period in milliseconds is
+ * taken from repl.profile.period (default 10); longer periods lower the overhead and the precision.
+ */
+public class Profiler {
+
+    private static final int TABLE_ROWS = 20;
+
+    // Profiler API is an optional dependency, only touched through Sampling when it is present
+    private static final boolean AVAILABLE = isAvailable("com.oracle.truffle.tools.profiler.CPUSampler");
+
+    private final TerminalOutputStream out;
+    private long runs;
+
+    private static final class Entry {
+        final String name;
+        final String location;
+        long self;
+        long total;
+
+        Entry(String name, String location) {
+            this.name = name;
+            this.location = location;
+        }
+    }
+
+    /**
+     * @param out stream the table is written to
+     */
+    public Profiler(final TerminalOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Evaluates code in given context with CPU sampler collecting and prints the per-function table. Has to be
+     * called on the thread that owns the context.
+     *
+     * @param context   session context
+     * @param language  language of the code
+     * @param code      code to profile
+     * @param collapsed file collapsed stacks are written to
+     * @throws IOException collapsed stacks could not be written
+     */
+    public void profile(final Context context, final String language, final String code, final Path collapsed)
+            throws IOException {
+        final long period = Long.getLong("repl.profile.period", 10);
+        // Samples are handed over asynchronously, a unique name keeps late ones of a previous run out of the report
+        final String name = "<profile " + ++runs + ">";
+        final Source source = Source.newBuilder(language, code, name).buildLiteral();
+        final Map<String, Entry> functions = new LinkedHashMap<>();
+        final Map<String, Long> stacks = new LinkedHashMap<>();
+        boolean sampled = AVAILABLE;
+        PolyglotException failure = null;
+        try {
+            sampled = sampled && Sampling.sample(context.getEngine(), period, () -> context.eval(source), name,
+                    functions, stacks);
+        } catch (PolyglotException e) {
+            failure = e; // report samples gathered until the failure
+        }
+        if (!sampled) {
+            out.writeLine("CPU sampler is not available, org.graalvm.tools:profiler has to be on the class path.");
+            return;
+        }
+
+        printTable(functions, period);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(collapsed, StandardCharsets.UTF_8))) {
+            stacks.forEach((stack, count) -> writer.println(stack + " " + count));
+        }
+        out.writeLine("Collapsed stacks written to " + collapsed);
+        if (failure != null) {
+            out.writeLine("Evaluation failed: " + failure.getMessage());
+        }
+    }
+
+    static boolean isAvailable(final String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static String location(final SourceSection section) {
+        if (section == null || !section.isAvailable()) {
+            return "<unknown>";
+        }
+        return section.getSource().getName() + ":" + section.getStartLine();
+    }
+
+    /**
+     * Collects samples through the profiler API, not loaded when the API is missing.
+     */
+    private static final class Sampling {
+
+        /**
+         * @return false if the sampler is not installed in the engine
+         */
+        static boolean sample(final Engine engine, final long period, final Runnable body, final String sourceName,
+                              final Map<String, Entry> functions, final Map<String, Long> stacks) {
+            final CPUSampler sampler = CPUSampler.find(engine);
+            if (sampler == null) {
+                return false;
+            }
+            sampler.clearData();
+            sampler.setPeriod(period);
+            sampler.setCollecting(true);
+            try {
+                body.run();
+            } finally {
+                sampler.setCollecting(false);
+                for (CPUSamplerData data : sampler.getData().values()) {
+                    for (Collection<ProfilerNode<CPUSampler.Payload>> roots : data.getThreadData().values()) {
+                        for (ProfilerNode<CPUSampler.Payload> root : roots) {
+                            collect(root, sourceName, functions, stacks);
+                        }
+                    }
+                }
+                sampler.clearData();
+            }
+            return true;
+        }
+
+        /**
+         * Finds frames of the profiled source. Frames above them belong to the evaluation that called profile().
+         */
+        private static void collect(final ProfilerNode<CPUSampler.Payload> node, final String sourceName,
+                                    final Map<String, Entry> functions, final Map<String, Long> stacks) {
+            final SourceSection section = node.getSourceSection();
+            if (section != null && sourceName.equals(section.getSource().getName())) {
+                walk(node, new ArrayDeque<>(), functions, stacks);
+                return;
+            }
+            for (ProfilerNode<CPUSampler.Payload> child : node.getChildren()) {
+                collect(child, sourceName, functions, stacks);
+            }
+        }
+
+        private static void walk(final ProfilerNode<CPUSampler.Payload> node, final Deque<String> stack,
+                                 final Map<String, Entry> functions, final Map<String, Long> stacks) {
+            final String name = node.getRootName();
+            final String location = location(node.getSourceSection());
+            final String key = name + " " + location;
+
+            final Entry function = functions.computeIfAbsent(key, k -> new Entry(name, location));
+            final long self = node.getPayload().getSelfHitCount();
+            function.self += self;
+            if (!stack.contains(key)) { // recursive calls are already included in the outer frame's total
+                function.total += node.getPayload().getHitCount();
+            }
+
+            stack.addLast(key);
+            if (self > 0) {
+                final StringBuilder sb = new StringBuilder();
+                for (String frame : stack) {
+                    if (sb.length() > 0) {
+                        sb.append(';');
+                    }
+                    sb.append(frame.replace(';', ':').replace(' ', '_'));
+                }
+                stacks.merge(sb.toString(), self, Long::sum);
+            }
+            for (ProfilerNode<CPUSampler.Payload> child : node.getChildren()) {
+                walk(child, stack, functions, stacks);
+            }
+            stack.removeLast();
+        }
+    }
+
+    private void printTable(final Map<String, Entry> functions, final long period) {
+        final List<Entry> sorted = new ArrayList<>(functions.values());
+        sorted.sort((a, b) -> Long.compare(b.self, a.self));
+        final long samples = sorted.stream().mapToLong(f -> f.self).sum();
+        if (samples == 0) {
+            out.writeLine("No samples were taken, evaluation was shorter than sampling period (" + period + " ms).");
+            return;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d samples, %d ms period%n", samples, period));
+        sb.append(String.format("%10s %7s %10s %7s  %s%n", "Self ms", "Self %", "Total ms", "Total %", "Function"));
+        for (Entry f : sorted.subList(0, Math.min(TABLE_ROWS, sorted.size()))) {
+            sb.append(String.format("%10d %6.1f%% %10d %6.1f%%  %s (%s)%n", f.self * period,
+                    100.0 * f.self / samples, f.total * period, 100.0 * f.total / samples, f.name, f.location));
+        }
+        if (sorted.size() > TABLE_ROWS) {
+            sb.append("... ").append(sorted.size() - TABLE_ROWS).append(" more").append(System.lineSeparator());
+        }
+        out.write(sb.toString());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import java.util.Arrays;
+
+/**
+ * Latency and throughput of a replayed session.
+ *
+ * Latency of a command is measured from the moment its first line is read until its evaluation finishes, so it
+ * includes lines fed to the guest while it runs (e.g. answers to input prompts), and their pacing.
+ */
+public class SessionReplay {
+
+    private long[] latencies = new long[64];
+    private int commands;
+    private final long start = System.nanoTime();
+    private long elapsed = -1;
+
+    void record(final long nanos) {
+        if (commands == latencies.length) {
+            latencies = Arrays.copyOf(latencies, commands * 2);
+        }
+        latencies[commands++] = nanos;
+    }
+
+    void finish() {
+        elapsed = System.nanoTime() - start;
+    }
+
+    public int getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return latency of each command in nanoseconds, in replay order
+     */
+    public long[] getLatencies() {
+        return Arrays.copyOf(latencies, commands);
+    }
+
+    /**
+     * @return replay wall time in nanoseconds
+     */
+    public long getElapsed() {
+        return elapsed >= 0 ? elapsed : System.nanoTime() - start;
+    }
+
+    public String report() {
+        final long wall = getElapsed();
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Replayed %d commands in %s (%.1f commands/s)%n", commands, TimeIt.format(wall),
+                wall > 0 ? commands * 1e9 / wall : 0));
+        if (commands > 0) {
+            final long[] sorted = getLatencies();
+            Arrays.sort(sorted);
+            double sum = 0;
+            for (long latency : sorted) {
+                sum += latency;
+            }
+            sb.append(String.format("latency mean %s, p50 %s, p90 %s, p99 %s, max %s%n",
+                    TimeIt.format(sum / commands), TimeIt.format(TimeIt.percentile(sorted, 50)),
+                    TimeIt.format(TimeIt.percentile(sorted, 90)), TimeIt.format(TimeIt.percentile(sorted, 99)),
+                    TimeIt.format(sorted[commands - 1])));
+        }
+        return sb.toString();
+    }
+}
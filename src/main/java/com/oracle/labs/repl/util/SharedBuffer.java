@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Typed numeric array backed by an off-heap direct ByteBuffer, shared by all languages and contexts.
+ *
+ * Guests see it as an array with typed elements, so one language can fill it in place and another can read it
+ * without converting or copying the data. The buffer member exposes the underlying ByteBuffer for languages that
+ * support buffer interop.
+ */
+public final class SharedBuffer implements ProxyArray, ProxyObject {
+
+    public enum Type {
+        INT8(1), UINT8(1), INT16(2), INT32(4), INT64(8), FLOAT32(4), FLOAT64(8);
+
+        final int bytes;
+
+        Type(int bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @param name type name, e.g. "float64"
+         * @return type
+         * @throws IllegalArgumentException unknown type
+         */
+        public static Type of(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final String[] MEMBERS = {"type", "length", "buffer", "fill"};
+
+    private final Type type;
+    private final int length;
+    private final ByteBuffer buffer;
+
+    /**
+     * @param type   element type
+     * @param length number of elements
+     * @throws IllegalArgumentException length is negative or buffer would be larger than 2 GB
+     */
+    public SharedBuffer(final Type type, final int length) {
+        if (length < 0 || (long) length * type.bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid buffer length: " + length);
+        }
+        this.type = type;
+        this.length = length;
+        this.buffer = ByteBuffer.allocateDirect(length * type.bytes).order(ByteOrder.nativeOrder());
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return underlying buffer, in native byte order. Only absolute get and put methods should be used on it.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public Object get(final long index) {
+        final int offset = offset(index);
+        switch (type) {
+            case INT8:
+                return buffer.get(offset);
+            case UINT8:
+                return buffer.get(offset) & 0xff;
+            case INT16:
+                return buffer.getShort(offset);
+            case INT32:
+                return buffer.getInt(offset);
+            case INT64:
+                return buffer.getLong(offset);
+            case FLOAT32:
+                return buffer.getFloat(offset);
+            default:
+                return buffer.getDouble(offset);
+        }
+    }
+
+    @Override
+    public void set(final long index, final Value value) {
+        put(offset(index), value);
+    }
+
+    private void put(final int offset, final Value value) {
+        switch (type) {
+            case INT8:
+            case UINT8:
+                buffer.put(offset, (byte) asLong(value));
+                break;
+            case INT16:
+                buffer.putShort(offset, (short) asLong(value));
+                break;
+            case INT32:
+                buffer.putInt(offset, (int) asLong(value));
+                break;
+            case INT64:
+                buffer.putLong(offset, asLong(value));
+                break;
+            case FLOAT32:
+                buffer.putFloat(offset, (float) asDouble(value));
+                break;
+            default:
+                buffer.putDouble(offset, asDouble(value));
+        }
+    }
+
+    @Override
+    public boolean remove(final long index) {
+        throw new UnsupportedOperationException("Shared buffers have fixed length.");
+    }
+
+    @Override
+    public long getSize() {
+        return length;
+    }
+
+    @Override
+    public Object getMember(final String key) {
+        switch (key) {
+            case "type":
+                return type.toString();
+            case "length":
+                return length;
+            case "buffer":
+                return buffer;
+            case "fill":
+                return (ProxyExecutable) args -> {
+                    for (int offset = 0; offset < length * type.bytes; offset += type.bytes) {
+                        put(offset, args[0]);
+                    }
+                    return this;
+                };
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Object getMemberKeys() {
+        return ProxyArray.fromArray((Object[]) MEMBERS);
+    }
+
+    @Override
+    public boolean hasMember(final String key) {
+        for (String member : MEMBERS) {
+            if (member.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void putMember(final String key, final Value value) {
+        throw new UnsupportedOperationException("Shared buffer members are read-only.");
+    }
+
+    private int offset(final long index) {
+        if (index < 0 || index >= length) {
+            throw new ArrayIndexOutOfBoundsException((int) Math.min(Math.max(index, Integer.MIN_VALUE),
+                    Integer.MAX_VALUE));
+        }
+        return (int) index * type.bytes;
+    }
+
+    private static long asLong(final Value value) {
+        return value.fitsInLong() ? value.asLong() : (long) value.asDouble();
+    }
+
+    private static double asDouble(final Value value) {
+        return value.fitsInDouble() ? value.asDouble() : (double) value.asLong();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedBuffer[" + type + " x " + length + "]";
+    }
+}
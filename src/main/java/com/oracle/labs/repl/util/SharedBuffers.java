@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named registry of shared buffers, so buffer allocated in one language can be looked up in another.
+ */
+public class SharedBuffers {
+
+    private final Map<String, SharedBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * Allocates named buffer, or returns existing one if it has the same type and length.
+     *
+     * @param name   buffer name
+     * @param type   element type name, e.g. "float64"
+     * @param length number of elements
+     * @return buffer
+     * @throws IllegalArgumentException buffer with the same name but different shape exists
+     */
+    public SharedBuffer allocate(final String name, final String type, final int length) {
+        final SharedBuffer.Type bufferType = SharedBuffer.Type.of(type);
+        final SharedBuffer buffer = buffers.computeIfAbsent(name, n -> new SharedBuffer(bufferType, length));
+        if (buffer.getType() != bufferType || buffer.getSize() != length) {
+            throw new IllegalArgumentException("Buffer " + name + " already exists as " + buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @param name buffer name
+     * @return buffer or null
+     */
+    public SharedBuffer get(final String name) {
+        return buffers.get(name);
+    }
+
+    /**
+     * Forgets named buffer. Its memory is released once no language references it any more.
+     *
+     * @param name buffer name
+     * @return true if buffer existed
+     */
+    public boolean release(final String name) {
+        return buffers.remove(name) != null;
+    }
+
+    public ProxyObject toBinding() {
+        final Map<String, Object> members = new HashMap<>();
+        members.put("allocate", (ProxyExecutable) args ->
+                allocate(args[0].asString(), args[1].asString(), args[2].asInt()));
+        members.put("get", (ProxyExecutable) args -> get(args[0].asString()));
+        members.put("release", (ProxyExecutable) args -> release(args[0].asString()));
+        members.put("names", (ProxyExecutable) args -> ProxyArray.fromArray(buffers.keySet().toArray()));
+        return ProxyObject.fromMap(members);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of file sources and their parse results.
+ *
+ * Files are memory-mapped and decoded straight into the Source, without going through the UI. Entries are keyed
+ * by path and validated against file size and modification time, so running an unchanged file again costs a
+ * single stat call, with no reads and no parsing. Parse results are keyed by context id rather than by context, so
+ * they never keep a context reachable; callers {@link #clear()} the cache when contexts are closed.
+ */
+public class SourceCache {
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        final String language;
+        final long size;
+        final long modified;
+        final Source source;
+        final Map<Long, Value> parsed = new HashMap<>(); // guarded by entry
+
+        Entry(String language, long size, long modified, Source source) {
+            this.language = language;
+            this.size = size;
+            this.modified = modified;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Returns source of given file, loading it only if it changed since last call.
+     *
+     * @param path     file path
+     * @param language language of the file
+     * @return source
+     * @throws IOException file could not be read
+     */
+    public Source source(final Path path, final String language) throws IOException {
+        return entry(path.toAbsolutePath().normalize(), language).source;
+    }
+
+    /**
+     * Returns parsed (but not yet executed) file in given context. Result is cached per context until file
+     * changes.
+     *
+     * @param contextId id of the context, unique among contexts that were ever open
+     * @param context   polyglot context
+     * @param path      file path
+     * @param language  language of the file
+     * @return executable value
+     * @throws IOException file could not be read
+     */
+    public Value parse(final long contextId, final Context context, final Path path, final String language)
+            throws IOException {
+        final Entry entry = entry(path.toAbsolutePath().normalize(), language);
+        synchronized (entry) {
+            return entry.parsed.computeIfAbsent(contextId, id -> context.parse(entry.source));
+        }
+    }
+
+    /**
+     * Drops all cached sources and parse results.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private Entry entry(final Path path, final String language) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        final long modified = attributes.lastModifiedTime().toMillis();
+
+        final Entry cached = entries.get(path);
+        if (cached != null && cached.size == attributes.size() && cached.modified == modified
+                && cached.language.equals(language)) {
+            return cached;
+        }
+
+        final Entry entry = new Entry(language, attributes.size(), modified, load(path, language, attributes.size()));
+        entries.put(path, entry);
+        return entry;
+    }
+
+    private static Source load(final Path path, final String language, final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File is too large: " + path);
+        }
+        final CharBuffer characters;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            characters = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(mapped);
+        }
+        return Source.newBuilder(language, characters, path.getFileName().toString()).uri(path.toUri()).build();
+    }
+}
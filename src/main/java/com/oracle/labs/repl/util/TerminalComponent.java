@@ -40,12 +40,17 @@
  */
 package com.oracle.labs.repl.util;
 
+import com.oracle.labs.repl.events.ReplEvents;
+import com.oracle.labs.repl.events.ReplEvents.StreamDrainEvent;
+import com.oracle.labs.repl.events.ReplEvents.UpdateEvent;
 import com.oracle.labs.repl.streams.TerminalInputStream;
 import com.oracle.labs.repl.streams.TerminalOutputStream;
 import javafx.application.Platform;
 import javafx.scene.control.TextArea;
+import javafx.scene.control.TextFormatter;
 
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -58,11 +63,19 @@ public class TerminalComponent {
 
     private String currentCode = "";
     private String terminalText = "";
+    private int editableFrom; // length of output shown in the terminal, only text after it can be edited
+    private boolean updating; // set while the whole text is replaced by update()
 
-    private final ArrayList<String> history;
+    private final Map<String, HistoryStore> histories;
+    private HistoryStore history;
     private int historyPosition;
 
+    private String searchQuery; // reverse search query, null when not searching
+    private HistoryStore.Match searchMatch;
+    private String searchOriginal;
+
     private Boolean changed;
+    private volatile boolean paused;
 
     public TerminalOutputStream out, log, err;
     public TerminalInputStream in;
@@ -70,7 +83,8 @@ public class TerminalComponent {
     public TerminalComponent(TextArea terminal) {
         this.terminal = terminal;
         this.changed = false;
-        history = new ArrayList<>();
+        histories = new HashMap<>();
+        history = HistoryStore.inMemory();
         historyPosition = 0;
 
         in = new TerminalInputStream();
@@ -78,7 +92,7 @@ public class TerminalComponent {
         log = new TerminalOutputStream();
         err = new TerminalOutputStream();
 
-        terminal.textProperty().addListener(event -> checkInvalidState());
+        terminal.setTextFormatter(new TextFormatter<>(this::filterEdit));
 
         Timer timer = new Timer(true);
         TimerTask streamListener = new TimerTask() {
@@ -86,43 +100,180 @@ public class TerminalComponent {
             public void run() {
                 // We want the rendering task to have a maximum priority.
                 Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+                // Streams are drained into the capped scrollback even in background, so they do not grow
                 updateStreams();
-                safeUpdate();
+                if (!paused) {
+                    safeUpdate();
+                }
             }
         };
         timer.scheduleAtFixedRate(streamListener, 100, 100);
     }
 
+    /**
+     * Stops (or restarts) rendering of stream output, e.g. while the app is in background. Output is still drained
+     * while paused and shown on resume.
+     *
+     * @param paused true to stop rendering
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        if (!paused) {
+            updateStreams();
+            safeUpdate();
+        }
+    }
+
+    /**
+     * Releases memory that can be restored on demand: histories of other languages are closed (and reopened from
+     * files when switched to) and stream buffers are shrunk.
+     */
+    public synchronized void trimMemory() {
+        histories.entrySet().removeIf(entry -> {
+            final HistoryStore store = entry.getValue();
+            if (store == history || !store.isPersistent()) {
+                return false;
+            }
+            store.close();
+            return true;
+        });
+        out.trim();
+        log.trim();
+        err.trim();
+    }
+
+    /**
+     * Switches to history of given language, opening it on first use.
+     *
+     * @param language language name
+     */
+    public synchronized void setHistoryLanguage(String language) {
+        endReverseSearch(false);
+        history = histories.computeIfAbsent(language, HistoryStore::open);
+        historyPosition = 0;
+    }
+
     public void historyChange(int move) {
-        historyPosition = Math.max(Math.min(historyPosition + move, history.size()), 0);
+        historyPosition = Math.max(Math.min(historyPosition + move, history.windowSize()), 0);
         if (historyPosition > 0) {
-            currentCode = history.get(history.size() - historyPosition);
+            currentCode = history.recent(historyPosition);
         }
         changed = true;
         safeUpdate();
-        terminal.positionCaret(terminal.getText().length());
+        terminal.positionCaret(terminal.getLength());
     }
 
-    public synchronized void checkInvalidState() {
-        String newVal = terminal.getText();
+    public boolean isReverseSearching() {
+        return searchQuery != null;
+    }
 
-        changed = true;
+    /**
+     * Starts reverse search or, if already searching, moves to the next older match.
+     */
+    public synchronized void reverseSearch() {
+        if (searchQuery == null) {
+            searchQuery = "";
+            searchOriginal = currentCode;
+            searchMatch = null;
+            changed = true;
+            safeUpdate();
+        } else if (searchMatch != null) {
+            runSearch(searchMatch.index);
+        }
+    }
 
-        if (newVal.length() < terminalText.length() || !newVal.startsWith(terminalText)) {
-            safeUpdate(); // you cannot edit output!
+    /**
+     * Extends or shortens reverse search query. Matches are looked up incrementally, starting from current match.
+     *
+     * @param typed     typed characters
+     * @param backspace true if last query character should be removed instead
+     */
+    public synchronized void editReverseSearch(String typed, boolean backspace) {
+        if (searchQuery == null) {
             return;
         }
+        if (backspace) {
+            searchQuery = searchQuery.isEmpty() ? "" : searchQuery.substring(0, searchQuery.length() - 1);
+            runSearch(history.size());
+        } else {
+            searchQuery += typed;
+            runSearch(searchMatch != null ? searchMatch.index + 1 : history.size());
+        }
+    }
 
-        if (newVal.endsWith(System.lineSeparator()) && !terminalText.equals(newVal)) {
-            safeUpdate(); // you cannot edit output!
+    /**
+     * Leaves reverse search mode.
+     *
+     * @param accept true to keep matched entry as current code, false to restore previous code
+     */
+    public synchronized void endReverseSearch(boolean accept) {
+        if (searchQuery == null) {
             return;
         }
-
-        currentCode = newVal.substring(terminalText.length());
+        history.cancelSearch();
+        currentCode = accept && searchMatch != null ? searchMatch.text : searchOriginal;
+        searchQuery = null;
+        searchMatch = null;
+        searchOriginal = null;
+        changed = true;
         safeUpdate();
     }
 
+    private void runSearch(long before) {
+        final String query = searchQuery;
+        history.search(query, before, match -> {
+            synchronized (this) {
+                if (query.equals(searchQuery)) {
+                    searchMatch = match;
+                    changed = true;
+                    safeUpdate();
+                }
+            }
+        });
+    }
+
+    private String searchLine() {
+        return "(reverse-i-search)`" + searchQuery + "': " + (searchMatch != null ? searchMatch.text : "");
+    }
+
+    /**
+     * Validates edit before it is applied, so typing costs as much as the edit rather than the whole document.
+     * Output and reverse search line cannot be edited, and current code is updated from the edit alone.
+     */
+    private synchronized TextFormatter.Change filterEdit(TextFormatter.Change change) {
+        if (updating || !change.isContentChange()) {
+            return change;
+        }
+        if (searchQuery != null || change.getRangeStart() < editableFrom) {
+            return null; // you cannot edit output!
+        }
+        String text = change.getText();
+        if (text.indexOf('\n') >= 0) {
+            if (text.length() == 1 && change.getRangeStart() == change.getControlText().length()) {
+                return null; // ENTER submits, it does not add a line
+            }
+            if (text.length() > 1 && text.endsWith("\n")) {
+                // Pasted block is kept as is and submitted as a whole on ENTER.
+                text = text.substring(0, text.length() - 1);
+                change.setText(text);
+            }
+        }
+        final int from = change.getRangeStart() - editableFrom;
+        final int to = Math.min(change.getRangeEnd() - editableFrom, currentCode.length());
+        if (from > to) {
+            return null; // current code was replaced and is not shown yet, update is pending
+        }
+        currentCode = currentCode.substring(0, from) + text + currentCode.substring(to);
+        return change;
+    }
+
     public synchronized void updateStreams() {
+        final int bytes = err.size() + log.size() + out.size();
+        final StreamDrainEvent event = bytes > 0 ? ReplEvents.beginStreamDrain() : null;
+        if (event != null) {
+            event.bytes = bytes;
+        }
+
         if (!err.toString().isEmpty()) {
             guiWrite("err> " + err + System.lineSeparator());
             changed = true;
@@ -140,6 +291,7 @@ public class TerminalComponent {
             changed = true;
             out.reset();
         }
+        ReplEvents.end(event);
     }
 
     private synchronized void guiWrite(String s) {
@@ -169,12 +321,23 @@ public class TerminalComponent {
         if (!changed) {
             return;
         }
-        String oldVal = terminalText + currentCode;
+        final UpdateEvent event = ReplEvents.beginUpdate();
+        String oldVal = terminalText + (searchQuery != null ? searchLine() : currentCode);
         int pos = this.fixCaretPosition();
-        terminal.setText(oldVal);
+        updating = true;
+        try {
+            terminal.setText(oldVal);
+        } finally {
+            updating = false;
+        }
+        editableFrom = terminalText.length();
         terminal.positionCaret(pos);
         terminal.setScrollTop(Double.MAX_VALUE);
         changed = false;
+        if (event != null) {
+            event.textLength = oldVal.length();
+        }
+        ReplEvents.end(event);
     }
 
     public void safeUpdate() {
@@ -188,6 +351,7 @@ public class TerminalComponent {
     }
 
     public synchronized void commitCurrent() {
+        endReverseSearch(true);
         if (!currentCode.equals("")) {
             history.add(currentCode.trim());
         }
@@ -198,6 +362,44 @@ public class TerminalComponent {
         flushCurrent();
     }
 
+    /**
+     * @return true if current code spans multiple lines, e.g. after paste
+     */
+    public synchronized boolean isCurrentMultiline() {
+        return currentCode.trim().indexOf('\n') >= 0;
+    }
+
+    /**
+     * Commits multi-line current code as a single block, echoing continuation lines with "... " prompt.
+     *
+     * @return committed block
+     */
+    public synchronized String commitBlock() {
+        endReverseSearch(true);
+        final String block = currentCode.trim();
+        history.add(block);
+        historyPosition = 0;
+        writeLine(block.replace("\n", System.lineSeparator() + "... "));
+        flushCurrent();
+        return block;
+    }
+
+    /**
+     * Removes current code without sending it to the input stream, e.g. to queue it while an evaluation runs.
+     *
+     * @return current code
+     */
+    public synchronized String takeCurrent() {
+        endReverseSearch(true);
+        final String code = currentCode.trim();
+        if (!code.isEmpty()) {
+            history.add(code);
+        }
+        historyPosition = 0;
+        flushCurrent();
+        return code;
+    }
+
     public synchronized void flushCurrent() {
         currentCode = "";
         update();
@@ -207,6 +409,31 @@ public class TerminalComponent {
         return currentCode;
     }
 
+    /**
+     * @return caret position relative to the start of current code
+     */
+    public synchronized int getCaretOffset() {
+        return Math.max(0, Math.min(terminal.getCaretPosition() - terminalText.length(), currentCode.length()));
+    }
+
+    /**
+     * Replaces part of current code and moves caret after replacement.
+     *
+     * @param from start offset within current code
+     * @param to   end offset within current code
+     * @param text replacement text
+     */
+    public synchronized void replaceCurrent(int from, int to, String text) {
+        if (from < 0 || to > currentCode.length() || from > to) {
+            return;
+        }
+        currentCode = currentCode.substring(0, from) + text + currentCode.substring(to);
+        final int caret = terminalText.length() + from + text.length();
+        changed = true;
+        update();
+        terminal.positionCaret(caret);
+    }
+
     public void setTerminal(TextArea terminal) {
         this.terminal = terminal;
     }
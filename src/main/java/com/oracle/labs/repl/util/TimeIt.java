@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.streams.TerminalOutputStream;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+import java.util.Arrays;
+
+/**
+ * Micro-benchmark of guest snippets, in the spirit of Python's timeit.
+ *
+ * Snippet is parsed once and the parsed value is executed for a number of warm-up iterations, followed by the
+ * measured ones, so parsing is not part of the measurement. Results are flagged as unstable when the spread is
+ * large or the two halves of the measurement disagree, which usually means that compilation has not settled
+ * yet and more warm-up iterations are needed.
+ */
+public class TimeIt {
+
+    public static final int DEFAULT_WARMUP = 10;
+    public static final int DEFAULT_ITERATIONS = 50;
+
+    // Coefficient of variation, and relative difference of half means, above which results are unstable
+    private static final double UNSTABLE = 0.1;
+
+    private final TerminalOutputStream out;
+
+    public TimeIt(final TerminalOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Runs snippet on given context. Has to be called on the thread that owns the context.
+     *
+     * @param context    polyglot context
+     * @param language   snippet language
+     * @param code       snippet
+     * @param warmup     number of warm-up iterations
+     * @param iterations number of measured iterations
+     * @return measured times in nanoseconds
+     */
+    public long[] run(final Context context, final String language, final String code, final int warmup,
+                      final int iterations) {
+        if (warmup < 0 || iterations < 1) {
+            throw new IllegalArgumentException("Expected non-negative warm-up and positive iteration count.");
+        }
+        final Value parsed = context.parse(Source.newBuilder(language, code, "<timeit>").buildLiteral());
+
+        for (int i = 0; i < warmup; i++) {
+            parsed.execute();
+        }
+
+        final long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            final long start = System.nanoTime();
+            parsed.execute();
+            times[i] = System.nanoTime() - start;
+        }
+
+        out.write(report(times, warmup));
+        return times;
+    }
+
+    private static String report(final long[] times, final int warmup) {
+        final int n = times.length;
+        final double mean = mean(times, 0, n);
+        double variance = 0;
+        for (long time : times) {
+            variance += (time - mean) * (time - mean);
+        }
+        final double deviation = n > 1 ? Math.sqrt(variance / (n - 1)) : 0;
+
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d iterations (%d warm-up): mean %s +- %s%n", n, warmup, format(mean),
+                format(deviation)));
+        sb.append(String.format("min %s, p50 %s, p90 %s, p99 %s, max %s%n", format(sorted[0]),
+                format(percentile(sorted, 50)), format(percentile(sorted, 90)), format(percentile(sorted, 99)),
+                format(sorted[n - 1])));
+
+        final boolean spread = mean > 0 && deviation / mean > UNSTABLE;
+        boolean drift = false;
+        if (n >= 4) {
+            final double first = mean(times, 0, n / 2);
+            final double second = mean(times, n / 2, n);
+            drift = Math.abs(first - second) / Math.max(first, second) > UNSTABLE;
+        }
+        if (spread || drift) {
+            sb.append("Warning: results have not stabilised")
+                    .append(drift ? " (first and second half differ)" : " (high variance)")
+                    .append(", try more warm-up iterations.").append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    private static double mean(final long[] times, final int from, final int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += times[i];
+        }
+        return sum / (to - from);
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     */
+    static long percentile(final long[] sorted, final int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    static String format(final double nanos) {
+        if (nanos < 1e3) {
+            return String.format("%.0f ns", nanos);
+        }
+        if (nanos < 1e6) {
+            return String.format("%.2f us", nanos / 1e3);
+        }
+        if (nanos < 1e9) {
+            return String.format("%.2f ms", nanos / 1e6);
+        }
+        return String.format("%.2f s", nanos / 1e9);
+    }
+}
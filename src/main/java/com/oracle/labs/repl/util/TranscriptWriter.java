@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.streams.TerminalOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Tees terminal streams to rotating transcript files.
+ *
+ * Streams only copy written bytes into a bounded queue, so writing never waits for the disk. A dedicated thread
+ * drains the queue in batches through a large buffer and prefixes every line with a timestamp, stream name and
+ * evaluation id. If the queue is full, records are dropped and the number of dropped records is noted in the
+ * transcript. When the current file grows over the size limit it is rotated: transcript.log becomes
+ * transcript.1.log and so on, keeping a limited number of files. If the transcript cannot be written, streams are
+ * detached and the error is reported once on the error stream.
+ */
+public class TranscriptWriter {
+
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+    private static final int BATCH_SIZE = 512;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Path directory;
+    private final long maxBytes = Long.getLong("repl.transcript.maxBytes", 10L * 1024 * 1024);
+    private final int maxFiles = Integer.getInteger("repl.transcript.files", 5);
+    private final LongSupplier evaluationId;
+    private final TerminalOutputStream err;
+    private final List<TerminalOutputStream> attached = new CopyOnWriteArrayList<>();
+
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    // Writer thread state
+    private final Map<String, StreamState> streams = new HashMap<>();
+    private Writer writer;
+    private long written; // UTF-8 bytes in current file
+
+    private static final class Record {
+        final String stream;
+        final long evaluation;
+        final long time;
+        final byte[] bytes;
+
+        Record(String stream, long evaluation, long time, byte[] bytes) {
+            this.stream = stream;
+            this.evaluation = evaluation;
+            this.time = time;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class StreamState {
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer leftover = ByteBuffer.allocate(0); // incomplete UTF-8 sequence from previous record
+        boolean lineStart = true;
+    }
+
+    /**
+     * @param directory    directory of transcript files
+     * @param evaluationId supplier of the id of running evaluation
+     * @param err          stream write failures are reported to
+     */
+    public TranscriptWriter(final Path directory, final LongSupplier evaluationId, final TerminalOutputStream err) {
+        this.directory = directory;
+        this.evaluationId = evaluationId;
+        this.err = err;
+        final Thread thread = new Thread(this::drain, "transcript-writer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Starts copying given stream to the transcript.
+     *
+     * @param name   stream name used in line prefixes
+     * @param stream terminal stream
+     */
+    public void attach(final String name, final TerminalOutputStream stream) {
+        attached.add(stream);
+        stream.setSink((b, off, len) -> {
+            final byte[] copy = new byte[len];
+            System.arraycopy(b, off, copy, 0, len);
+            if (!queue.offer(new Record(name, evaluationId.getAsLong(), System.currentTimeMillis(), copy))) {
+                dropped.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Detaches streams and stops the writer once queued output is written.
+     *
+     * @param attached streams attached with {@link #attach(String, TerminalOutputStream)}
+     */
+    public void close(final TerminalOutputStream... attached) {
+        for (TerminalOutputStream stream : attached) {
+            stream.setSink(null);
+        }
+        this.attached.removeAll(Arrays.asList(attached));
+        running = false;
+    }
+
+    /**
+     * @return false once closed or stopped after a write failure
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    public Path getFile() {
+        return directory.resolve("transcript.log");
+    }
+
+    private void drain() {
+        final List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (running || !queue.isEmpty()) {
+                final Record first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    for (Record record : batch) {
+                        write(record);
+                    }
+                    batch.clear();
+                }
+                final long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    writeLine(Instant.now() + " [transcript] " + lost + " records dropped, writer could not keep up");
+                }
+                if (writer != null && queue.isEmpty()) {
+                    writer.flush(); // idle, make transcript readable
+                }
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(final IOException e) {
+        running = false;
+        for (TerminalOutputStream stream : attached) {
+            stream.setSink(null); // stop queueing output nobody will write
+        }
+        attached.clear();
+        queue.clear();
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+                // already failing
+            }
+            writer = null;
+        }
+        err.writeLine("Transcript stopped, it could not be written: " + e.getMessage());
+    }
+
+    private void write(final Record record) throws IOException {
+        final StreamState state = streams.computeIfAbsent(record.stream, s -> new StreamState());
+
+        final ByteBuffer in = ByteBuffer.allocate(state.leftover.remaining() + record.bytes.length);
+        in.put(state.leftover).put(record.bytes).flip();
+        final CharBuffer out = CharBuffer.allocate(in.remaining());
+        state.decoder.decode(in, out, false);
+        state.leftover = in.slice();
+        out.flip();
+
+        final String prefix = Instant.ofEpochMilli(record.time) + " [" + record.stream + " #" + record.evaluation
+                + "] ";
+        final StringBuilder sb = new StringBuilder(out.length() + prefix.length());
+        for (int i = 0; i < out.length(); i++) {
+            if (state.lineStart) {
+                sb.append(prefix);
+                state.lineStart = false;
+            }
+            final char c = out.charAt(i);
+            sb.append(c);
+            if (c == '\n') {
+                state.lineStart = true;
+            }
+        }
+        append(sb);
+    }
+
+    private void writeLine(final String line) throws IOException {
+        append(line + System.lineSeparator());
+    }
+
+    private void append(final CharSequence text) throws IOException {
+        if (writer == null || written >= maxBytes) {
+            rotate();
+        }
+        writer.append(text);
+        written += utf8Length(text);
+    }
+
+    private static long utf8Length(final CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                length += 2; // surrogate pair takes 4 bytes together
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void rotate() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                final Path source = directory.resolve(i == 1 ? "transcript.log" : "transcript." + (i - 1) + ".log");
+                if (Files.exists(source)) {
+                    Files.move(source, directory.resolve("transcript." + i + ".log"),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (maxFiles <= 1) {
+                Files.deleteIfExists(getFile()); // no archived files, start over
+            }
+        }
+        final Path file = getFile();
+        writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), BUFFER_SIZE);
+        written = Files.size(file);
+    }
+}
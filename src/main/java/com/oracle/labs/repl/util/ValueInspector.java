@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import com.oracle.labs.repl.streams.TerminalOutputStream;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Lazy, paged inspector of polyglot values.
+ *
+ * Instead of converting a value to a string, inspector shows its type and size, followed by a single page of
+ * array elements or members. Nested values are only summarised until they are expanded, so only the visible page
+ * is ever materialised. Results at the prompt are echoed as their text when they are small, and summarised the
+ * same way otherwise. Strings are previewed from their leading characters only.
+ */
+public class ValueInspector {
+
+    public static final int PAGE_SIZE = 20;
+    private static final int MAX_PREVIEW = 80;
+    private static final int ECHO_ELEMENTS = 10;
+    private static final int SMALL_ELEMENTS = 100; // elements, members or entries echoed as text, nested ones included
+
+    private final TerminalOutputStream out;
+    private final Supplier<Value> lastResult;
+    private final BiFunction<Value, Integer, String> stringHead;
+    private final Deque<Frame> path = new ArrayDeque<>();
+
+    private static final class Frame {
+        final String label;
+        final Value value;
+        long offset;
+
+        Frame(String label, Value value) {
+            this.label = label;
+            this.value = value;
+        }
+    }
+
+    /**
+     * @param out        stream inspector writes to
+     * @param lastResult supplier of the result of last evaluation
+     * @param stringHead returns at most given number of leading characters of a string value
+     */
+    public ValueInspector(final TerminalOutputStream out, final Supplier<Value> lastResult,
+                          final BiFunction<Value, Integer, String> stringHead) {
+        this.out = out;
+        this.lastResult = lastResult;
+        this.stringHead = stringHead;
+    }
+
+    /**
+     * Bounded, single line echo of evaluation result. Scalars and small values are shown as their text, cut to a
+     * single line preview, large arrays and objects are only summarised, so they are never converted to text.
+     *
+     * @param value evaluation result
+     * @return preview, or null if there is nothing to show (null, undefined, None...)
+     */
+    public String echo(final Value value) {
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        try {
+            if (value.isString() || isSmall(value, new long[]{SMALL_ELEMENTS})) {
+                return preview(value);
+            }
+            if (!value.hasArrayElements()) {
+                return summary(value);
+            }
+            final long size = value.getArraySize();
+            final StringBuilder sb = new StringBuilder(summary(value)).append(" [");
+            for (long i = 0; i < Math.min(size, ECHO_ELEMENTS); i++) {
+                sb.append(i > 0 ? ", " : "").append(preview(value.getArrayElement(i)));
+            }
+            return sb.append(size > ECHO_ELEMENTS ? ", ...]" : "]").toString();
+        } catch (PolyglotException e) {
+            return "<" + e.getMessage() + ">";
+        }
+    }
+
+    public synchronized void show(final Value value) {
+        path.clear();
+        if (value == null) {
+            out.writeLine("Nothing to inspect.");
+            return;
+        }
+        path.push(new Frame("value", value));
+        render();
+    }
+
+    public synchronized void next() {
+        move(PAGE_SIZE);
+    }
+
+    public synchronized void previous() {
+        move(-PAGE_SIZE);
+    }
+
+    /**
+     * Descends into array element or member of inspected value.
+     *
+     * @param key element index or member name
+     */
+    public synchronized void expand(final Value key) {
+        final Frame frame = path.peek();
+        if (frame == null) {
+            out.writeLine("Nothing to inspect.");
+            return;
+        }
+        final Value value = frame.value;
+        final Value child;
+        final String label;
+        if (key.isNumber() && key.fitsInLong() && value.hasArrayElements()) {
+            final long index = key.asLong();
+            if (index < 0 || index >= value.getArraySize()) {
+                out.writeLine("Index out of range: " + index);
+                return;
+            }
+            child = value.getArrayElement(index);
+            label = frame.label + "[" + index + "]";
+        } else if (key.isString() && value.hasMember(key.asString())) {
+            child = value.getMember(key.asString());
+            label = frame.label + "." + key.asString();
+        } else {
+            out.writeLine("No such element: " + key);
+            return;
+        }
+        path.push(new Frame(label, child));
+        render();
+    }
+
+    public synchronized void up() {
+        if (path.size() > 1) {
+            path.pop();
+        }
+        render();
+    }
+
+    /**
+     * @return inspector functions, to be bound as a language object
+     */
+    public ProxyObject toBinding() {
+        final Map<String, Object> members = new HashMap<>();
+        members.put("show", (ProxyExecutable) args -> {
+            show(args.length > 0 ? args[0] : lastResult.get());
+            return null;
+        });
+        members.put("next", (ProxyExecutable) args -> {
+            next();
+            return null;
+        });
+        members.put("previous", (ProxyExecutable) args -> {
+            previous();
+            return null;
+        });
+        members.put("expand", (ProxyExecutable) args -> {
+            expand(args[0]);
+            return null;
+        });
+        members.put("up", (ProxyExecutable) args -> {
+            up();
+            return null;
+        });
+        return ProxyObject.fromMap(members);
+    }
+
+    private void move(final long delta) {
+        final Frame frame = path.peek();
+        if (frame == null) {
+            out.writeLine("Nothing to inspect.");
+            return;
+        }
+        final long size = size(frame.value);
+        frame.offset = Math.max(0, Math.min(frame.offset + delta, size - 1));
+        frame.offset -= frame.offset % PAGE_SIZE;
+        render();
+    }
+
+    private void render() {
+        final Frame frame = path.peek();
+        if (frame == null) {
+            return;
+        }
+        final Value value = frame.value;
+        out.writeLine(frame.label + ": " + summary(value));
+
+        final long size = size(value);
+        final long end = Math.min(frame.offset + PAGE_SIZE, size);
+        try {
+            if (value.hasArrayElements()) {
+                for (long i = frame.offset; i < end; i++) {
+                    out.writeLine("  [" + i + "] " + preview(value.getArrayElement(i)));
+                }
+            } else if (value.hasMembers()) {
+                final Iterator<String> keys = value.getMemberKeys().iterator();
+                for (long i = 0; i < end && keys.hasNext(); i++) {
+                    final String key = keys.next();
+                    if (i >= frame.offset) {
+                        out.writeLine("  " + key + ": " + preview(value.getMember(key)));
+                    }
+                }
+            } else {
+                out.writeLine("  " + preview(value));
+            }
+        } catch (PolyglotException e) {
+            out.writeLine("  <" + e.getMessage() + ">");
+        }
+
+        if (size > PAGE_SIZE) {
+            out.writeLine("  (" + frame.offset + "-" + (end - 1) + " of " + size
+                    + "; inspector.next(), inspector.previous(), inspector.expand(key), inspector.up())");
+        }
+    }
+
+    private static long size(final Value value) {
+        if (value.hasArrayElements()) {
+            return value.getArraySize();
+        }
+        if (value.hasMembers()) {
+            return value.getMemberKeys().size();
+        }
+        return 1;
+    }
+
+    private static String summary(final Value value) {
+        final String type = typeName(value);
+        if (value.hasArrayElements()) {
+            return type + "[" + value.getArraySize() + "]";
+        }
+        if (value.hasHashEntries()) {
+            return type + " {" + value.getHashSize() + " entries}";
+        }
+        if (value.hasMembers() && !value.isHostObject()) {
+            return type + " {" + value.getMemberKeys().size() + " members}";
+        }
+        return type;
+    }
+
+    private String preview(final Value value) {
+        if (value.isNull()) {
+            return "null";
+        }
+        if (value.isString()) {
+            return truncate('"' + stringHead.apply(value, MAX_PREVIEW) + '"');
+        }
+        if (value.isNumber() || value.isBoolean()) {
+            return value.toString();
+        }
+        if ((value.hasArrayElements() || value.hasMembers()) && !isSmall(value, new long[]{SMALL_ELEMENTS})) {
+            return summary(value); // nested values are shown only when expanded
+        }
+        return truncate(value.toString());
+    }
+
+    /**
+     * Tells if value is cheap to convert to text: it has at most budget elements, members and hash entries in total,
+     * including those of nested arrays and hashes, and strings in them are short. Members are only counted, not read,
+     * so no accessors run.
+     *
+     * @param value  value to check
+     * @param budget remaining number of elements, decremented as they are counted
+     */
+    private boolean isSmall(final Value value, final long[] budget) {
+        if (value.isString()) {
+            return stringHead.apply(value, MAX_PREVIEW + 1).length() <= MAX_PREVIEW;
+        }
+        if (value.hasHashEntries()) {
+            budget[0] -= value.getHashSize();
+            final Value values = value.getHashValuesIterator();
+            while (budget[0] >= 0 && values.hasIteratorNextElement()) {
+                if (!isSmall(values.getIteratorNextElement(), budget)) {
+                    return false;
+                }
+            }
+        }
+        if (value.hasMembers() && !value.isHostObject()) {
+            budget[0] -= value.getMemberKeys().size();
+        }
+        if (value.hasArrayElements()) {
+            final long size = value.getArraySize();
+            budget[0] -= size;
+            for (long i = 0; i < size && budget[0] >= 0; i++) {
+                if (!isSmall(value.getArrayElement(i), budget)) {
+                    return false;
+                }
+            }
+        }
+        return budget[0] >= 0;
+    }
+
+    private static String typeName(final Value value) {
+        try {
+            final Value meta = value.getMetaObject();
+            if (meta != null) {
+                return meta.getMetaSimpleName();
+            }
+        } catch (PolyglotException | UnsupportedOperationException e) {
+            // fall back to interop traits
+        }
+        if (value.hasArrayElements()) {
+            return "array";
+        }
+        return value.hasMembers() ? "object" : "value";
+    }
+
+    private static String truncate(final String text) {
+        return text.length() <= MAX_PREVIEW ? text : text.substring(0, MAX_PREVIEW - 3) + "...";
+    }
+}
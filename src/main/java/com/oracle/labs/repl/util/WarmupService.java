@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2020, 2021 Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.labs.repl.util;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Replays frequently evaluated snippets and configured warm-up scripts on an idle background context, so that
+ * they are already parsed (and compiled, where the runtime supports it) when the user needs them.
+ *
+ * Snippets are counted by content hash. Once a snippet is seen {@link #MIN_COUNT} times its text is stored in the
+ * warm-up data directory, and the most frequent ones are replayed on the next start. Background contexts share
+ * the engine with the main context, so parsed sources and compiled code carry over. Replay waits while an
+ * evaluation is running and cancels a replayed execution as soon as a new one starts.
+ *
+ * Configured with system properties:
+ * <ul>
+ * <li>repl.warmup - set to false to disable warm-up</li>
+ * <li>repl.warmup.limit - maximum number of recorded snippets to replay (default 10)</li>
+ * <li>repl.warmup.maxLength - longest snippet, in characters, that is recorded (default 4096)</li>
+ * <li>repl.warmup.execute - also execute snippets and scripts, not only parse them (default false)</li>
+ * <li>repl.warmup.scripts - list of warm-up scripts, separated by path separator; scripts in the scripts
+ * subdirectory of the warm-up data directory are always included</li>
+ * </ul>
+ */
+public class WarmupService {
+
+    private static final int MIN_COUNT = 2;
+    private static final int MAX_ENTRIES = 256;
+    private static final String INDEX = "index.properties";
+    private static final long INDEX_DELAY = 5; // seconds, index is written at most once per delay
+
+    private final Path directory;
+    private final Supplier<Context> contextFactory;
+    private final SourceCache sourceCache;
+    private final Set<String> languages;
+
+    private final boolean enabled = Boolean.parseBoolean(System.getProperty("repl.warmup", "true"));
+    private final int limit = Integer.getInteger("repl.warmup.limit", 10);
+    private final boolean execute = Boolean.getBoolean("repl.warmup.execute");
+    private final int maxLength = Integer.getInteger("repl.warmup.maxLength", 4096);
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "warmup-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean dirty;
+    private boolean indexScheduled;
+
+    // Replay state, guarded by lock
+    private final Object lock = new Object();
+    private int busy;
+    private boolean cancelled;
+    private Context running; // background context while it executes a snippet
+
+    private static final class Entry {
+        final String language;
+        final boolean interactive;
+        int count;
+
+        Entry(String language, boolean interactive, int count) {
+            this.language = language;
+            this.interactive = interactive;
+            this.count = count;
+        }
+    }
+
+    /**
+     * @param directory      warm-up data directory, or null to keep counts in memory only
+     * @param contextFactory creates background contexts on the shared engine
+     * @param sourceCache    cache used for warm-up scripts, shared with the main context
+     * @param languages      available languages
+     */
+    public WarmupService(final Path directory, final Supplier<Context> contextFactory, final SourceCache sourceCache,
+                         final Set<String> languages) {
+        this.directory = directory;
+        this.contextFactory = contextFactory;
+        this.sourceCache = sourceCache;
+        this.languages = languages;
+        if (directory != null && enabled) {
+            load();
+        }
+    }
+
+    /**
+     * Opens warm-up service backed by application data directory, falling back to in-memory counts.
+     */
+    public static WarmupService open(final Supplier<Context> contextFactory, final SourceCache sourceCache,
+                                     final Set<String> languages) {
+        Path directory;
+        try {
+            directory = AppFiles.dataDirectory("warmup");
+        } catch (IOException e) {
+            directory = null;
+        }
+        return new WarmupService(directory, contextFactory, sourceCache, languages);
+    }
+
+    /**
+     * Counts evaluated snippet. Cheap enough to be called after every evaluation: snippets longer than
+     * repl.warmup.maxLength are ignored, and files are written in background, with index writes batched.
+     *
+     * @param language    snippet language
+     * @param code        snippet text
+     * @param interactive whether snippet was evaluated as interactive source
+     */
+    public void record(final String language, final CharSequence code, final boolean interactive) {
+        if (!enabled || code.length() == 0 || code.length() > maxLength) {
+            return;
+        }
+        final String text = code.toString();
+        final String hash = hash(language, text, interactive);
+        final boolean store;
+        final boolean schedule;
+        synchronized (entries) {
+            final Entry entry = entries.computeIfAbsent(hash, h -> new Entry(language, interactive, 0));
+            store = ++entry.count == MIN_COUNT;
+            dirty = true;
+            schedule = !indexScheduled;
+            indexScheduled = true;
+        }
+        if (directory != null) {
+            if (store) {
+                io.execute(() -> saveSource(hash, text));
+            }
+            if (schedule) {
+                io.schedule(this::saveIndex, INDEX_DELAY, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Starts replay on a background thread.
+     */
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        final Thread thread = new Thread(this::replay, "warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops replay. Snippet that is currently executing is cancelled.
+     */
+    public void cancel() {
+        synchronized (lock) {
+            cancelled = true;
+            cancelRunning();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Called when user evaluation starts. Replay waits until matching {@link #resume()}.
+     */
+    public void pause() {
+        synchronized (lock) {
+            busy++;
+            cancelRunning();
+        }
+    }
+
+    /**
+     * Called when user evaluation ends.
+     */
+    public void resume() {
+        synchronized (lock) {
+            busy--;
+            lock.notifyAll();
+        }
+    }
+
+    private void cancelRunning() {
+        if (running != null) {
+            running.close(true);
+            running = null;
+        }
+    }
+
+    /**
+     * Waits until no evaluation is running.
+     *
+     * @return false if replay was cancelled
+     */
+    private boolean awaitIdle() {
+        synchronized (lock) {
+            while (busy > 0 && !cancelled) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return !cancelled;
+        }
+    }
+
+    private void replay() {
+        final List<Source> sources = new ArrayList<>();
+        for (Path script : scripts()) {
+            try {
+                final String language = Source.findLanguage(script.toFile());
+                if (language != null && languages.contains(language)) {
+                    sources.add(sourceCache.source(script, language));
+                }
+            } catch (IOException e) {
+                System.err.println("Warm-up script " + script + " could not be read: " + e.getMessage());
+            }
+        }
+        sources.addAll(snippets());
+
+        Context context = null;
+        for (Source source : sources) {
+            if (!awaitIdle()) {
+                break;
+            }
+            try {
+                if (context == null) {
+                    context = contextFactory.get();
+                }
+                context.parse(source);
+                if (execute) {
+                    synchronized (lock) {
+                        if (busy > 0 || cancelled) {
+                            continue; // parsed anyway, skip execution
+                        }
+                        running = context;
+                    }
+                    try {
+                        context.eval(source);
+                    } finally {
+                        synchronized (lock) {
+                            running = null;
+                        }
+                    }
+                }
+            } catch (PolyglotException e) {
+                if (e.isCancelled()) {
+                    context = null; // closed by pause() or cancel(), next snippet gets a new context
+                }
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                // language does not support another context, or it was closed meanwhile
+                context = null;
+            }
+        }
+        if (context != null) {
+            try {
+                context.close();
+            } catch (IllegalStateException e) {
+                // already closed
+            }
+        }
+    }
+
+    private List<Path> scripts() {
+        final List<Path> scripts = new ArrayList<>();
+        final String configured = System.getProperty("repl.warmup.scripts");
+        if (configured != null) {
+            for (String name : configured.split(File.pathSeparator)) {
+                if (!name.isEmpty()) {
+                    scripts.add(Paths.get(name));
+                }
+            }
+        }
+        if (directory != null && Files.isDirectory(directory.resolve("scripts"))) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.resolve("scripts"))) {
+                stream.forEach(scripts::add);
+            } catch (IOException e) {
+                // no scripts
+            }
+        }
+        return scripts;
+    }
+
+    private List<Source> snippets() {
+        final List<Map.Entry<String, Entry>> frequent = new ArrayList<>();
+        synchronized (entries) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().count >= MIN_COUNT && languages.contains(entry.getValue().language)) {
+                    frequent.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        frequent.sort(Comparator.comparingInt((Map.Entry<String, Entry> e) -> e.getValue().count).reversed());
+
+        final List<Source> sources = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : frequent) {
+            if (sources.size() >= limit || directory == null) {
+                break;
+            }
+            final Path file = directory.resolve(entry.getKey() + ".src");
+            try {
+                final String text = Files.readString(file, StandardCharsets.UTF_8);
+                // Same name and flags as the shell uses, so the engine can reuse the parse result.
+                sources.add(Source.newBuilder(entry.getValue().language, text, "<shell>")
+                        .interactive(entry.getValue().interactive).buildLiteral());
+            } catch (IOException e) {
+                // snippet was not stored yet
+            }
+        }
+        return sources;
+    }
+
+    private void load() {
+        final Properties index = new Properties();
+        try (InputStream in = Files.newInputStream(directory.resolve(INDEX))) {
+            index.load(in);
+        } catch (IOException e) {
+            return; // first start
+        }
+        for (String hash : index.stringPropertyNames()) {
+            final String[] parts = index.getProperty(hash).split(" ");
+            if (parts.length == 3) {
+                try {
+                    entries.put(hash, new Entry(parts[1], Boolean.parseBoolean(parts[2]),
+                            Integer.parseInt(parts[0])));
+                } catch (NumberFormatException e) {
+                    // skip broken entry
+                }
+            }
+        }
+    }
+
+    private void saveSource(final String hash, final String text) {
+        try {
+            Files.writeString(directory.resolve(hash + ".src"), text, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Warm-up data could not be saved: " + e.getMessage());
+        }
+    }
+
+    private void saveIndex() {
+        try {
+            final Properties index = new Properties();
+            final List<String> evicted = new ArrayList<>();
+            synchronized (entries) {
+                indexScheduled = false;
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                if (entries.size() > MAX_ENTRIES) {
+                    final List<String> hashes = new ArrayList<>(entries.keySet());
+                    hashes.sort(Comparator.comparingInt(h -> entries.get(h).count));
+                    for (String h : hashes.subList(0, entries.size() - MAX_ENTRIES)) {
+                        entries.remove(h);
+                        evicted.add(h);
+                    }
+                }
+                entries.forEach((h, e) -> index.setProperty(h, e.count + " " + e.language + " " + e.interactive));
+            }
+
+            final Path temp = directory.resolve(INDEX + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                index.store(out, "GraalVM REPL warm-up counts");
+            }
+            Files.move(temp, directory.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING);
+
+            for (String h : evicted) {
+                Files.deleteIfExists(directory.resolve(h + ".src"));
+            }
+        } catch (IOException e) {
+            System.err.println("Warm-up data could not be saved: " + e.getMessage());
+        }
+    }
+
+    private static String hash(final String language, final String text, final boolean interactive) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((language + '\0' + interactive + '\0').getBytes(StandardCharsets.UTF_8));
+            final byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", bytes[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -40,6 +40,9 @@
  */
 package com.oracle.labs.repl.util;
 
+import com.oracle.labs.repl.events.ReplEvents;
+import com.oracle.labs.repl.events.ReplEvents.ExtractionEvent;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -53,6 +56,8 @@ import java.util.zip.ZipInputStream;
  */
 public class ZipUtils {
 
+    private static final int EVENT_BATCH_SIZE = 64;
+
     /**
      * Unzips given InputStream to given File
      *
@@ -63,6 +68,7 @@ public class ZipUtils {
     public static void unzip(InputStream source, File target) throws IOException {
         final ZipInputStream zipStream = new ZipInputStream(source);
         ZipEntry nextEntry;
+        ExtractionEvent event = ReplEvents.beginExtraction();
         while ((nextEntry = zipStream.getNextEntry()) != null) {
             final String name = nextEntry.getName();
             // only extract files
@@ -76,11 +82,21 @@ public class ZipUtils {
                 }
 
                 // write file
+                long written;
                 try (OutputStream targetStream = new FileOutputStream(nextFile)) {
-                    copy(zipStream, targetStream);
+                    written = copy(zipStream, targetStream);
+                }
+
+                if (event != null) {
+                    event.bytes += written;
+                    if (++event.entries == EVENT_BATCH_SIZE) {
+                        ReplEvents.end(event);
+                        event = ReplEvents.beginExtraction();
+                    }
                 }
             }
         }
+        ReplEvents.end(event);
     }
 
     /**
@@ -88,15 +104,19 @@ public class ZipUtils {
      *
      * @param source Source InputStream
      * @param target Target InputStream
+     * @return number of bytes copied
      * @throws IOException If write failed
      */
-    private static void copy(final InputStream source, final OutputStream target) throws IOException {
+    private static long copy(final InputStream source, final OutputStream target) throws IOException {
         final int bufferSize = 4 * 1024;
         final byte[] buffer = new byte[bufferSize];
 
+        long total = 0;
         int nextCount;
         while ((nextCount = source.read(buffer)) >= 0) {
             target.write(buffer, 0, nextCount);
+            total += nextCount;
         }
+        return total;
     }
 }
\ No newline at end of file
@@ -40,11 +40,13 @@
  */
 package com.oracle.labs.repl.util.languages;
 
+import com.oracle.labs.repl.editor.TokenGrammar;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Context.Builder;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Value;
 
-import java.util.function.IntSupplier;
+import java.util.Map;
 
 public class JavaScriptAdapter implements LanguageAdapter {
 
@@ -53,18 +55,55 @@ public class JavaScriptAdapter implements LanguageAdapter {
     }
 
     public Builder addContextOptions(Builder builder) {
-        return builder.option("engine.WarnInterpreterOnly", "false");
+        return builder;
     }
 
-    public void putBindings(Context context, IntSupplier clear, IntSupplier exit) {
-        Value bindings = context.getBindings("js");
-        bindings.putMember("clear", clear);
-        bindings.putMember("quit", exit);
-        bindings.putMember("exit", exit);
+    public Engine.Builder addEngineOptions(Engine.Builder builder) {
+        if (System.getProperty("truffle.TruffleRuntime", "").endsWith("DefaultTruffleRuntime")
+                || System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            // Running interpreter-only on purpose (native images are built with it), no need to warn about it.
+            return builder.option("engine.WarnInterpreterOnly", "false");
+        }
+        return builder;
+    }
+
+    public void putBindings(Context context, Map<String, Object> bindings) {
+        Value target = context.getBindings("js");
+        bindings.forEach(target::putMember);
     }
 
     public String initCode() {
         return "'GraalJS'";
         // console.log(`GraalVM ${Graal.language} ${Graal.versionGraalVM}`)";
     }
+
+    public String stringHead() {
+        return "(function(s, n) { return s.length > n ? s.substring(0, n) : s; })";
+    }
+
+    public String memberLookup() {
+        return "(function(o, k) {\n"
+                + "  try {\n"
+                + "    for (let p = o; p !== null && p !== undefined; p = Object.getPrototypeOf(p)) {\n"
+                + "      const d = Object.getOwnPropertyDescriptor(p, k);\n"
+                + "      if (d) return 'value' in d ? d.value : null;\n"
+                + "    }\n"
+                + "  } catch (e) {\n"
+                + "  }\n"
+                + "  return null;\n"
+                + "})";
+    }
+
+    public TokenGrammar grammar() {
+        return new TokenGrammar()
+                .keywords("async", "await", "break", "case", "catch", "class", "const", "continue", "debugger",
+                        "default", "delete", "do", "else", "export", "extends", "false", "finally", "for",
+                        "function", "if", "import", "in", "instanceof", "let", "new", "null", "of", "return",
+                        "static", "super", "switch", "this", "throw", "true", "try", "typeof", "undefined", "var",
+                        "void", "while", "with", "yield")
+                .block("/*", "*/", TokenGrammar.COMMENT)
+                .block("`", "`", TokenGrammar.STRING)
+                .lineComment("//")
+                .quotes("\"'");
+    }
 }
\ No newline at end of file
@@ -40,9 +40,13 @@
  */
 package com.oracle.labs.repl.util.languages;
 
-import java.util.function.IntSupplier;
+import java.util.Map;
+
+import com.oracle.labs.repl.editor.TokenGrammar;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Context.Builder;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.Value;
 
 /**
  * Interface that encapsulates polyglot language implementation.
@@ -63,16 +67,68 @@ public interface LanguageAdapter {
     Builder addContextOptions(Builder builder);
 
     /**
-     * Binds clear and exit, to language function in order to make them accessible by end-user.
+     * Adds engine options (if they are required by language implementation). Engine is shared by all languages.
+     * @param builder
+     * @return
+     */
+    Engine.Builder addEngineOptions(Engine.Builder builder);
+
+    /**
+     * Binds REPL functions (clear, exit, run...) to language in order to make them accessible by end-user.
      * @param context
-     * @param clear
-     * @param exit
+     * @param bindings functions by name
      */
-    void putBindings(Context context, IntSupplier clear, IntSupplier exit);
+    void putBindings(Context context, Map<String, Object> bindings);
 
     /**
      * Returns code to be executed at language initialization (usually prints version info etc).
      * @return init code in set language.
      */
     String initCode();
+
+    /**
+     * Whether language echoes results of interactive sources itself, e.g. because it decides which results are
+     * visible. Otherwise prompt input is evaluated as a regular source and the REPL prints a bounded preview of the
+     * result, so that huge results are never converted to text.
+     * @return true if prompt input should be evaluated as interactive source
+     */
+    default boolean echoesResults() {
+        return false;
+    }
+
+    /**
+     * Whether result of a regular source only stands for code that does not end with an expression, e.g. a module
+     * returned for statements. Such results are not echoed.
+     * @param result result of evaluation
+     * @return true if result is not a value of the evaluated code
+     */
+    default boolean isStatementResult(Value result) {
+        return false;
+    }
+
+    /**
+     * Returns a function (string, length) that returns at most length leading characters of a string, used to
+     * preview long strings without copying all of them to the host.
+     * @return function source in set language, or null to copy whole strings
+     */
+    default String stringHead() {
+        return null;
+    }
+
+    /**
+     * Returns a function (object, name) that returns a member of a language object only if it is plain data, without
+     * running getters or other accessors, and null otherwise. Used by completion to walk dotted expressions.
+     * @return function source in set language, or null if members of language objects are never walked
+     */
+    default String memberLookup() {
+        return null;
+    }
+
+    /**
+     * Returns token grammar used for syntax highlighting in code editor.
+     * @return token grammar, or null if code in set language is not highlighted
+     */
+    default TokenGrammar grammar() {
+        return null;
+    }
 }
\ No newline at end of file
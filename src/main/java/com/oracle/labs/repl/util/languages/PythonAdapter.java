@@ -40,11 +40,13 @@
  */
 package com.oracle.labs.repl.util.languages;
 
+import com.oracle.labs.repl.editor.TokenGrammar;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Context.Builder;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Value;
 
-import java.util.function.IntSupplier;
+import java.util.Map;
 import java.nio.file.Paths;
 
 public class PythonAdapter implements LanguageAdapter {
@@ -61,15 +63,45 @@ public class PythonAdapter implements LanguageAdapter {
                       .option("python.StdLibHome", Paths.get(tmpDir, "python", "lib-python", "3").toString());
     }
 
-    public void putBindings(Context context, IntSupplier clear, IntSupplier exit) {
-        Value bindings = context.getBindings("python");
-        bindings.putMember("clear", clear);
-        bindings.putMember("quit", exit);
-        bindings.putMember("exit", exit);
+    public Engine.Builder addEngineOptions(Engine.Builder builder) {
+        return builder;
+    }
+
+    public void putBindings(Context context, Map<String, Object> bindings) {
+        Value target = context.getBindings("python");
+        bindings.forEach(target::putMember);
     }
 
     public String initCode() {
         return "print('GraalPython')";
         // "import sys,polyglot\n" + {}'.format(sys.version.split()[0])
     }
+
+    public boolean isStatementResult(Value result) {
+        // regular sources that end with a statement evaluate to the __main__ module
+        final Value meta = result.getMetaObject();
+        return meta != null && "module".equals(meta.getMetaSimpleName()) && result.hasMember("__name__")
+                && "__main__".equals(result.getMember("__name__").asString());
+    }
+
+    public String stringHead() {
+        return "lambda s, n: s[:n]";
+    }
+
+    public String memberLookup() {
+        return "lambda o, k: (lambda v: None if isinstance(v, property) else v)("
+                + "__import__('inspect').getattr_static(o, k, None))";
+    }
+
+    public TokenGrammar grammar() {
+        return new TokenGrammar()
+                .keywords("False", "None", "True", "and", "as", "assert", "async", "await", "break", "class",
+                        "continue", "def", "del", "elif", "else", "except", "finally", "for", "from", "global",
+                        "if", "import", "in", "is", "lambda", "nonlocal", "not", "or", "pass", "raise", "return",
+                        "try", "while", "with", "yield")
+                .block("\"\"\"", "\"\"\"", TokenGrammar.STRING)
+                .block("'''", "'''", TokenGrammar.STRING)
+                .lineComment("#")
+                .quotes("\"'");
+    }
 }
\ No newline at end of file
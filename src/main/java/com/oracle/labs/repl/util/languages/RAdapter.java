@@ -40,11 +40,13 @@
  */
 package com.oracle.labs.repl.util.languages;
 
+import com.oracle.labs.repl.editor.TokenGrammar;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Context.Builder;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Value;
 
-import java.util.function.IntSupplier;
+import java.util.Map;
 
 public class RAdapter implements LanguageAdapter {
 
@@ -56,15 +58,33 @@ public class RAdapter implements LanguageAdapter {
         return builder;
     }
 
-    public void putBindings(Context context, IntSupplier clear, IntSupplier exit) {
-        Value bindings = context.getBindings("R");
-        bindings.putMember("clear", clear);
-        bindings.putMember("quit", exit);
-        bindings.putMember("exit", exit);
+    public Engine.Builder addEngineOptions(Engine.Builder builder) {
+        return builder;
+    }
+
+    public void putBindings(Context context, Map<String, Object> bindings) {
+        Value target = context.getBindings("R");
+        bindings.forEach(target::putMember);
     }
 
     public String initCode() {
         return "print('FastR')";
         // "cat(R.version.string)\ncat('\n')";
     }
+
+    public boolean echoesResults() {
+        return true; // R decides itself which results are visible
+    }
+
+    public String stringHead() {
+        return "function(s, n) substr(s, 1, n)";
+    }
+
+    public TokenGrammar grammar() {
+        return new TokenGrammar()
+                .keywords("FALSE", "Inf", "NA", "NULL", "NaN", "TRUE", "break", "else", "for", "function", "if",
+                        "in", "next", "repeat", "return", "while")
+                .lineComment("#")
+                .quotes("\"'`");
+    }
 }
\ No newline at end of file
@@ -40,11 +40,13 @@
  */
 package com.oracle.labs.repl.util.languages;
 
+import com.oracle.labs.repl.editor.TokenGrammar;
 import java.nio.file.Paths;
-import java.util.function.IntSupplier;
+import java.util.Map;
 
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Context.Builder;
+import org.graalvm.polyglot.Engine;
 
 import org.graalvm.polyglot.Value;
 
@@ -62,11 +64,13 @@ public class RubyAdapter implements LanguageAdapter {
         return builder; //.option("ruby.home",  rubyHome).option("log.level",  "CONFIG");
     }
 
-    public void putBindings(Context context, IntSupplier clear, IntSupplier exit) {
-        Value bindings = context.getPolyglotBindings();
-        bindings.putMember("clear", clear);
-        bindings.putMember("quit", exit);
-        bindings.putMember("exit", exit);
+    public Engine.Builder addEngineOptions(Engine.Builder builder) {
+        return builder;
+    }
+
+    public void putBindings(Context context, Map<String, Object> bindings) {
+        Value target = context.getPolyglotBindings();
+        bindings.forEach(target::putMember);
     }
 
     public String initCode() {
@@ -75,4 +79,19 @@ public class RubyAdapter implements LanguageAdapter {
         // "def quit() Polyglot.import('quit').call end;" + "def exit() Polyglot.import('exit').call end;"
         // + "def clear() Polyglot.import('clear').call end;\n";
     }
+
+    public String stringHead() {
+        return "->(s, n) { s[0, n] }";
+    }
+
+    public TokenGrammar grammar() {
+        return new TokenGrammar()
+                .keywords("BEGIN", "END", "alias", "and", "begin", "break", "case", "class", "def",
+                        "do", "else", "elsif", "end", "ensure", "false", "for", "if", "in", "module", "next", "nil",
+                        "not", "or", "redo", "rescue", "retry", "return", "self", "super", "then", "true", "undef",
+                        "unless", "until", "when", "while", "yield")
+                .block("=begin", "=end", TokenGrammar.COMMENT)
+                .lineComment("#")
+                .quotes("\"'");
+    }
 }
\ No newline at end of file